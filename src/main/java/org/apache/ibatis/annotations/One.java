@@ -32,4 +32,8 @@ public @interface One {
 
   FetchType fetchType() default FetchType.DEFAULT;
 
+  int batchSize() default 0;
+
+  String batchKey() default "";
+
 }
@@ -46,4 +46,16 @@ public @interface Options {
   String keyProperty() default "id";
 
   String keyColumn() default "";
+
+  boolean streaming() default false;
+
+  boolean useReplica() default true;
+
+  String shardOrderBy() default "";
+
+  boolean adaptiveTimeout() default false;
+
+  boolean circuitBreaker() default false;
+
+  boolean coalesce() default false;
 }
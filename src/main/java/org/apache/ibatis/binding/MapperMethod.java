@@ -17,6 +17,7 @@ package org.apache.ibatis.binding;
 
 import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.executor.result.PrimitiveArrayResultHandler;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.reflection.MetaObject;
@@ -28,6 +29,8 @@ import org.apache.ibatis.session.SqlSession;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * 接口中的方法映射到相应的sql声明模块，这样在方法执行的时候，就能调用对应的sql去执行
@@ -37,10 +40,73 @@ public class MapperMethod {
     private final SqlCommand command;
     //方法签名，获取返回结果，参数等信息
     private final MethodSignature method;
+    //创建时就确定好怎么执行，execute里不用再一层层判断
+    private final Execution execution;
+    //增删改返回值的类型
+    private final RowCountType rowCountType;
+    //返回List以外的集合或数组时，确定要怎么转换
+    private final boolean returnsArray;
+    private final boolean returnsAssignableFromList;
+
+    //执行方式
+    private enum Execution {
+        INSERT, UPDATE, DELETE, SELECT_WITH_HANDLER, SELECT_COLLECT, SELECT_STREAM, SELECT_PRIMITIVE_ARRAY, SELECT_MANY, SELECT_MAP, SELECT_ONE
+    }
+
+    //增删改返回值的类型，UNSUPPORTED在调用时才报错，和原来一样
+    private enum RowCountType {
+        VOID, INTEGER, LONG, BOOLEAN, UNSUPPORTED
+    }
 
     public MapperMethod(Class<?> mapperInterface, Method method, Configuration config) {
         this.command = new SqlCommand(config, mapperInterface, method);
         this.method = new MethodSignature(config, method);
+        this.execution = resolveExecution();
+        this.rowCountType = resolveRowCountType();
+        this.returnsArray = this.method.getReturnType().isArray();
+        this.returnsAssignableFromList = this.method.getReturnType().isAssignableFrom(ArrayList.class);
+    }
+
+    private Execution resolveExecution() {
+        switch (command.getType()) {
+            case INSERT:
+                return Execution.INSERT;
+            case UPDATE:
+                return Execution.UPDATE;
+            case DELETE:
+                return Execution.DELETE;
+            case SELECT:
+                if (method.returnsVoid() && method.hasResultHandler()) {
+                    return Execution.SELECT_WITH_HANDLER;
+                } else if (method.hasCollector()) {
+                    return Execution.SELECT_COLLECT;
+                } else if (method.returnsStream()) {
+                    return Execution.SELECT_STREAM;
+                } else if (!method.hasResultHandler() && PrimitiveArrayResultHandler.isSupported(method.getReturnType())) {
+                    return Execution.SELECT_PRIMITIVE_ARRAY;
+                } else if (method.returnsMany()) {
+                    return Execution.SELECT_MANY;
+                } else if (method.returnsMap()) {
+                    return Execution.SELECT_MAP;
+                }
+                return Execution.SELECT_ONE;
+            default:
+                throw new BindingException("Unknown execution method for: " + command.getName());
+        }
+    }
+
+    private RowCountType resolveRowCountType() {
+        Class<?> returnType = method.getReturnType();
+        if (method.returnsVoid()) {
+            return RowCountType.VOID;
+        } else if (Integer.class.equals(returnType) || Integer.TYPE.equals(returnType)) {
+            return RowCountType.INTEGER;
+        } else if (Long.class.equals(returnType) || Long.TYPE.equals(returnType)) {
+            return RowCountType.LONG;
+        } else if (Boolean.class.equals(returnType) || Boolean.TYPE.equals(returnType)) {
+            return RowCountType.BOOLEAN;
+        }
+        return RowCountType.UNSUPPORTED;
     }
 
     /**
@@ -52,36 +118,47 @@ public class MapperMethod {
         //存放sql执行放回的结果
         Object result;
         //4种情况，insert|update|delete|select，分别调用SqlSession的4大类方法
-        if (SqlCommandType.INSERT == command.getType()) {
-            //把Java程序中实际的参数转为mapper.xml中可获取的形式
-            Object param = method.convertArgsToSqlCommandParam(args);
-            //根据方法声明的类型返回 （int,long ,boolean）
-            result = rowCountResult(sqlSession.insert(command.getName(), param));
-        } else if (SqlCommandType.UPDATE == command.getType()) {
-            Object param = method.convertArgsToSqlCommandParam(args);
-            result = rowCountResult(sqlSession.update(command.getName(), param));
-        } else if (SqlCommandType.DELETE == command.getType()) {
-            Object param = method.convertArgsToSqlCommandParam(args);
-            result = rowCountResult(sqlSession.delete(command.getName(), param));
-        } else if (SqlCommandType.SELECT == command.getType()) {
-            //用户定义的接口中无返回结果并且在接口的参数中自己定义了结果处理器
-            if (method.returnsVoid() && method.hasResultHandler()) {
-                //则利用用户自己定义的结果处理器进行处理
+        switch (execution) {
+            case INSERT:
+                //把Java程序中实际的参数转为mapper.xml中可获取的形式
+                //根据方法声明的类型返回 （int,long ,boolean）
+                result = rowCountResult(sqlSession.insert(command.getName(), method.convertArgsToSqlCommandParam(args)));
+                break;
+            case UPDATE:
+                result = rowCountResult(sqlSession.update(command.getName(), method.convertArgsToSqlCommandParam(args)));
+                break;
+            case DELETE:
+                result = rowCountResult(sqlSession.delete(command.getName(), method.convertArgsToSqlCommandParam(args)));
+                break;
+            case SELECT_WITH_HANDLER:
+                //用户定义的接口中无返回结果并且在接口的参数中自己定义了结果处理器，则利用用户自己定义的结果处理器进行处理
                 executeWithResultHandler(sqlSession, args);
                 result = null;
-            } else if (method.returnsMany()) {
+                break;
+            case SELECT_COLLECT:
+                //方法参数里有Collector，每行直接累加，返回汇总的结果
+                result = executeForCollect(sqlSession, args);
+                break;
+            case SELECT_STREAM:
+                //返回Stream，逐行读取，调用方负责关闭
+                result = executeForStream(sqlSession, args);
+                break;
+            case SELECT_PRIMITIVE_ARRAY:
+                //int[]、long[]、double[]直接收集成基本类型数组
+                result = executeForPrimitiveArray(sqlSession, args);
+                break;
+            case SELECT_MANY:
                 //如果结果有多条记录
                 result = executeForMany(sqlSession, args);
-            } else if (method.returnsMap()) {
+                break;
+            case SELECT_MAP:
                 //如果结果是map
                 result = executeForMap(sqlSession, args);
-            } else {
+                break;
+            default:
                 //否则就是一条记录
-                Object param = method.convertArgsToSqlCommandParam(args);
-                result = sqlSession.selectOne(command.getName(), param);
-            }
-        } else {
-            throw new BindingException("Unknown execution method for: " + command.getName());
+                result = sqlSession.selectOne(command.getName(), method.convertArgsToSqlCommandParam(args));
+                break;
         }
         //如果返回结果为null，返回结果类型定义为基本类型并且不是void类型
         if (result == null && method.getReturnType().isPrimitive() && !method.returnsVoid()) {
@@ -98,24 +175,20 @@ public class MapperMethod {
      * @return
      */
     private Object rowCountResult(int rowCount) {
-        final Object result;
-        //如果方法中定义为void，则不需要返回结果
-        if (method.returnsVoid()) {
-            result = null;
-            //基本类型或者是包装类型
-        } else if (Integer.class.equals(method.getReturnType()) || Integer.TYPE.equals(method.getReturnType())) {
-            //如果返回值是大int或小int
-            result = Integer.valueOf(rowCount);
-        } else if (Long.class.equals(method.getReturnType()) || Long.TYPE.equals(method.getReturnType())) {
-            //如果返回值是大long或小long
-            result = Long.valueOf(rowCount);
-        } else if (Boolean.class.equals(method.getReturnType()) || Boolean.TYPE.equals(method.getReturnType())) {
-            //影响行数大于0，则返回true，说明更新成功
-            result = Boolean.valueOf(rowCount > 0);
-        } else {
-            throw new BindingException("Mapper method '" + command.getName() + "' has an unsupported return type: " + method.getReturnType());
+        switch (rowCountType) {
+            case VOID:
+                //如果方法中定义为void，则不需要返回结果
+                return null;
+            case INTEGER:
+                return Integer.valueOf(rowCount);
+            case LONG:
+                return Long.valueOf(rowCount);
+            case BOOLEAN:
+                //影响行数大于0，则返回true，说明更新成功
+                return Boolean.valueOf(rowCount > 0);
+            default:
+                throw new BindingException("Mapper method '" + command.getName() + "' has an unsupported return type: " + method.getReturnType());
         }
-        return result;
     }
 
     /**
@@ -142,6 +215,34 @@ public class MapperMethod {
         }
     }
 
+    private Object executeForCollect(SqlSession sqlSession, Object[] args) {
+        Object param = method.convertArgsToSqlCommandParam(args);
+        if (method.hasRowBounds()) {
+            return sqlSession.collect(command.getName(), param, method.extractRowBounds(args), method.extractCollector(args));
+        }
+        return sqlSession.collect(command.getName(), param, method.extractCollector(args));
+    }
+
+    private <E> Stream<E> executeForStream(SqlSession sqlSession, Object[] args) {
+        Object param = method.convertArgsToSqlCommandParam(args);
+        if (method.hasRowBounds()) {
+            return sqlSession.<E>selectStream(command.getName(), param, method.extractRowBounds(args));
+        }
+        return sqlSession.<E>selectStream(command.getName(), param);
+    }
+
+    //基本类型数组
+    private Object executeForPrimitiveArray(SqlSession sqlSession, Object[] args) {
+        PrimitiveArrayResultHandler resultHandler = PrimitiveArrayResultHandler.forArrayType(method.getReturnType());
+        Object param = method.convertArgsToSqlCommandParam(args);
+        if (method.hasRowBounds()) {
+            sqlSession.select(command.getName(), param, method.extractRowBounds(args), resultHandler);
+        } else {
+            sqlSession.select(command.getName(), param, resultHandler);
+        }
+        return resultHandler.getResult();
+    }
+
     //多条记录
     private <E> Object executeForMany(SqlSession sqlSession, Object[] args) {
         List<E> result;
@@ -155,8 +256,8 @@ public class MapperMethod {
         }
         // issue #510 Collections & arrays support
         //如果用户接口定义返回形式不是list 则需要转换为数组或者是其他集合的形式
-        if (!method.getReturnType().isAssignableFrom(result.getClass())) {
-            if (method.getReturnType().isArray()) {
+        if (!returnsAssignableFromList && !method.getReturnType().isAssignableFrom(result.getClass())) {
+            if (returnsArray) {
                 return convertToArray(result);
             } else {
                 return convertToDeclaredCollection(sqlSession.getConfiguration(), result);
@@ -221,6 +322,14 @@ public class MapperMethod {
 
         private static final long serialVersionUID = -2212268410512043556L;
 
+        public ParamMap() {
+            super();
+        }
+
+        public ParamMap(int initialCapacity) {
+            super(initialCapacity);
+        }
+
         @Override
         public V get(Object key) {
             if (!super.containsKey(key)) {
@@ -274,6 +383,7 @@ public class MapperMethod {
 
         private final boolean returnsMany;
         private final boolean returnsMap;
+        private final boolean returnsStream;
         private final boolean returnsVoid;//判断方法返回的结果是否返回为void
 
         private final Class<?> returnType;//判断方法返回结果具体类型，void也是一种类型
@@ -283,10 +393,17 @@ public class MapperMethod {
         private final Integer resultHandlerIndex;
         //记下Rowbounds在方法声明中是第几个参数
         private final Integer rowBoundsIndex;
+        //记下Collector在方法声明中是第几个参数
+        private final Integer collectorIndex;
         //每个数字对应参数的位置 或者用@param来指定名称
         private final SortedMap<Integer, String> params;
         //判断方法签名上 是否有@Param注解
         private final boolean hasNamedParameters;
+        //只有一个参数且没有@Param时，这个参数的位置，否则为-1
+        private final int singleParamIndex;
+        //ParamMap里的每个key和它对应的参数位置(包括param1,param2...)，创建时就算好
+        private final String[] paramMapKeys;
+        private final int[] paramMapIndexes;
 
         public MethodSignature(Configuration configuration, Method method) {
             //获取返回值的类型
@@ -295,6 +412,8 @@ public class MapperMethod {
             this.returnsVoid = void.class.equals(this.returnType);
             //返回结果是集合或者是数组
             this.returnsMany = (configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray());
+            //返回Stream时逐行读取
+            this.returnsStream = Stream.class.equals(this.returnType);
             //判断返回结果是否是map类型，如果是map类型需要指定主键是哪个属性
             this.mapKey = getMapKey(method);
             //如果返回的不为map,则为null
@@ -306,8 +425,30 @@ public class MapperMethod {
             this.rowBoundsIndex = getUniqueParamIndex(method, RowBounds.class);
             //记下ResultHandler在方法中是第几个参数
             this.resultHandlerIndex = getUniqueParamIndex(method, ResultHandler.class);
+            //记下Collector在方法中是第几个参数
+            this.collectorIndex = getUniqueParamIndex(method, Collector.class);
             //返回方法中对应参数的位置
             this.params = Collections.unmodifiableSortedMap(getParams(method, this.hasNamedParameters));
+            this.singleParamIndex = !hasNamedParameters && params.size() == 1 ? params.firstKey().intValue() : -1;
+            //按convertArgsToSqlCommandParam原来的放入顺序算出最终的key，param1...不覆盖同名的@Param
+            final Map<String, Integer> paramMapping = new LinkedHashMap<String, Integer>();
+            int i = 0;
+            for (Map.Entry<Integer, String> entry : params.entrySet()) {
+                paramMapping.put(entry.getValue(), entry.getKey());
+                final String genericParamName = "param" + String.valueOf(i + 1);
+                if (!paramMapping.containsKey(genericParamName)) {
+                    paramMapping.put(genericParamName, entry.getKey());
+                }
+                i++;
+            }
+            this.paramMapKeys = new String[paramMapping.size()];
+            this.paramMapIndexes = new int[paramMapping.size()];
+            i = 0;
+            for (Map.Entry<String, Integer> entry : paramMapping.entrySet()) {
+                paramMapKeys[i] = entry.getKey();
+                paramMapIndexes[i] = entry.getValue().intValue();
+                i++;
+            }
         }
 
         /**
@@ -317,33 +458,18 @@ public class MapperMethod {
          * @return
          */
         public Object convertArgsToSqlCommandParam(Object[] args) {
-            //获取方法中声明的参数个数
-            final int paramCount = params.size();
             //如果没参数
-            if (args == null || paramCount == 0) {
+            if (args == null || params.isEmpty()) {
                 return null;
-            } else if (!hasNamedParameters && paramCount == 1) {
+            } else if (singleParamIndex >= 0) {
                 //如果只有一个参数 并且没有参数注解，就返回这个参数本身
                 //注意这里不能直接取0，因为方法中定义没有参数，但是可能会有resultHandler，RowBounds
-                return args[params.keySet().iterator().next().intValue()];
+                return args[singleParamIndex];
             } else {
-                //否则，返回一个ParamMap，修改参数名，参数名就是其位置 不存在这个参数的话 就报错
-                final Map<String, Object> param = new ParamMap<Object>();
-                int i = 0;
-                for (Map.Entry<Integer, String> entry : params.entrySet()) {
-                    //entry.getValue()为数字或者是参数注解的名字
-                    //就是按照顺序的声明 可能为对应的声明的顺序的数字 可能为@Param
-                    param.put(entry.getValue(), args[entry.getKey().intValue()]);
-                    final String genericParamName = "param" + String.valueOf(i + 1);
-
-                    if (!param.containsKey(genericParamName)) {
-                        //2.再加一个#{param1},#{param2}...参数
-                        //你可以传递多个参数给一个映射器方法。如果你这样做了,
-                        //默认情况下它们将会以它们在参数列表中的位置来命名,比如:#{param1},#{param2}等。
-                        //如果你想改变参数的名称(只在多参数情况下) ,那么你可以在参数上使用@Param(“paramName”)注解。
-                        param.put(genericParamName, args[entry.getKey()]);
-                    }
-                    i++;
+                //否则，返回一个ParamMap，参数名是位置或者@Param的名字，再加上#{param1},#{param2}...
+                final Map<String, Object> param = new ParamMap<Object>(paramMapKeys.length * 2);
+                for (int i = 0; i < paramMapKeys.length; i++) {
+                    param.put(paramMapKeys[i], args[paramMapIndexes[i]]);
                 }
                 return param;
             }
@@ -367,6 +493,16 @@ public class MapperMethod {
             return hasResultHandler() ? (ResultHandler) args[resultHandlerIndex] : null;
         }
 
+        public boolean hasCollector() {
+            return collectorIndex != null;
+        }
+
+        //从参数中获取Collector
+        @SuppressWarnings("unchecked")
+        public Collector<Object, Object, Object> extractCollector(Object[] args) {
+            return hasCollector() ? (Collector<Object, Object, Object>) args[collectorIndex] : null;
+        }
+
         public String getMapKey() {
             return mapKey;
         }
@@ -383,6 +519,10 @@ public class MapperMethod {
             return returnsMap;
         }
 
+        public boolean returnsStream() {
+            return returnsStream;
+        }
+
         public boolean returnsVoid() {
             return returnsVoid;
         }
@@ -440,7 +580,8 @@ public class MapperMethod {
             final Class<?>[] argTypes = method.getParameterTypes();
             //声明的接口中可能含有ResultHandler和Rowbunds
             for (int i = 0; i < argTypes.length; i++) {
-                if (!RowBounds.class.isAssignableFrom(argTypes[i]) && !ResultHandler.class.isAssignableFrom(argTypes[i])) {
+                if (!RowBounds.class.isAssignableFrom(argTypes[i]) && !ResultHandler.class.isAssignableFrom(argTypes[i])
+                        && !Collector.class.isAssignableFrom(argTypes[i])) {
                     //参数名字默认为0,1,2，这就是为什么xml里面可以用#{1}这样的写法来表示参数了
                     String paramName = String.valueOf(params.size());
                     //如果方法签名上有注释
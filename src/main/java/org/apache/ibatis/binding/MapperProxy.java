@@ -45,6 +45,11 @@ public class MapperProxy<T> implements InvocationHandler, Serializable {
      */
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        //MapperProxyFactory已经为接口的每个方法建好了MapperMethod，大多数调用在这里就命中
+        MapperMethod mapperMethod = methodCache.get(method);
+        if (mapperMethod != null) {
+            return mapperMethod.execute(sqlSession, args);
+        }
         //如果这个方法是Object中声明的方法（toString、hashCode等）无需代理 直接执行
         if (Object.class.equals(method.getDeclaringClass())) {
             try {
@@ -53,7 +58,7 @@ public class MapperProxy<T> implements InvocationHandler, Serializable {
                 throw ExceptionUtil.unwrapThrowable(t);
             }
         }
-        final MapperMethod mapperMethod = cachedMapperMethod(method);
+        mapperMethod = cachedMapperMethod(method);
         //代理方法去实际执行
         return mapperMethod.execute(sqlSession, args);
     }
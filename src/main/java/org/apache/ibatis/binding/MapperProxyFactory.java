@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.binding;
 
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSession;
 
 import java.lang.reflect.Method;
@@ -29,6 +30,8 @@ public class MapperProxyFactory<T> {
     private final Class<T> mapperInterface;
     //接口中的每个接口需要和sql匹配起来
     private Map<Method, MapperMethod> methodCache = new ConcurrentHashMap<Method, MapperMethod>();
+    //第一次生成代理时为所有方法建好MapperMethod(这时语句都已经解析完了)
+    private volatile boolean methodsResolved;
 
     //只需传递进来一个接口
     public MapperProxyFactory(Class<T> mapperInterface) {
@@ -51,6 +54,23 @@ public class MapperProxyFactory<T> {
         return methodCache;
     }
 
+    /**
+     * 预先为接口的每个方法算好执行方式：语句、参数转换、返回值转换，调用时直接执行
+     * 找不到语句的方法先跳过，真正调用时再按原来的方式报错
+     */
+    private void resolveMethods(Configuration configuration) {
+        for (Method method : mapperInterface.getMethods()) {
+            if (!methodCache.containsKey(method)) {
+                try {
+                    methodCache.put(method, new MapperMethod(mapperInterface, method, configuration));
+                } catch (BindingException e) {
+                    //ignore
+                }
+            }
+        }
+        methodsResolved = true;
+    }
+
     /**
      * 生成一个接口代理实现类
      * @param mapperProxy
@@ -69,6 +89,9 @@ public class MapperProxyFactory<T> {
      * @return
      */
     public T newInstance(SqlSession sqlSession) {
+        if (!methodsResolved) {
+            resolveMethods(sqlSession.getConfiguration());
+        }
         final MapperProxy<T>  mapperProxy = new MapperProxy<T>(sqlSession, mapperInterface, methodCache);
         return newInstance(mapperProxy);
     }
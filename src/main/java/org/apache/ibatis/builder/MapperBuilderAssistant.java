@@ -280,7 +280,13 @@ public class MapperBuilderAssistant extends BaseBuilder {
             String keyColumn,
             String databaseId,
             LanguageDriver lang,
-            String resultSets) {
+            String resultSets,
+            boolean streaming,
+            boolean useReplica,
+            String shardOrderBy,
+            boolean adaptiveTimeout,
+            boolean circuitBreaker,
+            boolean coalesce) {
 
         if (unresolvedCacheRef) {
             throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -303,6 +309,12 @@ public class MapperBuilderAssistant extends BaseBuilder {
         statementBuilder.lang(lang);
         statementBuilder.resultOrdered(resultOrdered);
         statementBuilder.resulSets(resultSets);
+        statementBuilder.streaming(streaming);
+        statementBuilder.useReplica(useReplica);
+        statementBuilder.shardOrderBy(shardOrderBy);
+        statementBuilder.adaptiveTimeout(adaptiveTimeout);
+        statementBuilder.circuitBreaker(circuitBreaker);
+        statementBuilder.coalesce(coalesce);
         setStatementTimeout(timeout, statementBuilder);
 
         //1.参数映射
@@ -419,6 +431,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
      * @param resultSet       结果集类型
      * @param foreignColumn   外建
      * @param lazy            是否懒加载
+     * @param batchSize       嵌套查询批量加载的大小，0为不批量
+     * @param batchKey        批量加载时子对象中对应column值的属性
      * @return
      */
     //构建ResultMapping 每个resultMap就对应一条
@@ -436,7 +450,9 @@ public class MapperBuilderAssistant extends BaseBuilder {
             List<ResultFlag> flags,
             String resultSet,
             String foreignColumn,
-            boolean lazy) {
+            boolean lazy,
+            int batchSize,
+            String batchKey) {
         //Java类属性的类型，如果没有找到默认为object
         Class<?> javaTypeClass = resolveResultJavaType(resultType, property, javaType);
         //如果没有显示配置类型处理器，则根据Java属性类型寻找合适的类型处理器，一般都是基本类型
@@ -461,9 +477,31 @@ public class MapperBuilderAssistant extends BaseBuilder {
         builder.columnPrefix(columnPrefix);
         builder.foreignColumn(foreignColumn);
         builder.lazy(lazy);
+        builder.batchSize(batchSize);
+        builder.batchKey(batchKey);
         return builder.build();
     }
 
+    public ResultMapping buildResultMapping(
+            Class<?> resultType,
+            String property,
+            String column,
+            Class<?> javaType,
+            JdbcType jdbcType,
+            String nestedSelect,
+            String nestedResultMap,
+            String notNullColumn,
+            String columnPrefix,
+            Class<? extends TypeHandler<?>> typeHandler,
+            List<ResultFlag> flags,
+            String resultSet,
+            String foreignColumn,
+            boolean lazy) {
+        return buildResultMapping(
+                resultType, property, column, javaType, jdbcType, nestedSelect,
+                nestedResultMap, notNullColumn, columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, 0, null);
+    }
+
     private Set<String> parseMultipleColumnNames(String columnName) {
         Set<String> columns = new HashSet<String>();
         if (columnName != null) {
@@ -603,7 +641,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
                 id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
                 parameterMap, parameterType, resultMap, resultType, resultSetType,
                 flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
-                keyColumn, databaseId, lang, null);
+                keyColumn, databaseId, lang, null, false, true, null,
+                false, false, false);
     }
 
 }
@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder;
+
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorMetadata;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 构建时生成反射元数据，比如在打包前用exec插件执行：
+ * java org.apache.ibatis.builder.ReflectorMetadataGenerator mybatis-config.xml target/classes/META-INF/mybatis/reflector-metadata.properties
+ * 解析配置和所有mapper，收集resultMap、parameterMap里用到的类型以及它们属性的类型，写出每个类的getter/setter
+ */
+public class ReflectorMetadataGenerator {
+
+    private final Configuration configuration;
+
+    public ReflectorMetadataGenerator(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ReflectorMetadataGenerator <mybatis-config.xml> <output file>");
+            System.exit(1);
+        }
+        Reader reader = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+        Configuration configuration;
+        try {
+            configuration = new XMLConfigBuilder(reader).parse();
+        } finally {
+            reader.close();
+        }
+        File output = new File(args[1]);
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), "ISO-8859-1");
+        try {
+            new ReflectorMetadataGenerator(configuration).generate(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void generate(Writer writer) throws IOException {
+        ReflectorMetadata.write(collectTypes(), writer);
+    }
+
+    /**
+     * mapper里引用到的结果和参数类型，再加上它们的属性类型(递归)，有类型处理器的简单类型和JDK的类不算
+     */
+    public Set<Class<?>> collectTypes() {
+        final Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+        final Deque<Class<?>> pending = new ArrayDeque<Class<?>>();
+        //StrictMap里的缩略名可能放的是Ambiguity，要判断类型
+        for (Object resultMap : configuration.getResultMaps()) {
+            if (resultMap instanceof ResultMap) {
+                addResultMap((ResultMap) resultMap, pending);
+            }
+        }
+        for (Object parameterMap : configuration.getParameterMaps()) {
+            if (parameterMap instanceof ParameterMap && ((ParameterMap) parameterMap).getType() != null) {
+                pending.add(((ParameterMap) parameterMap).getType());
+            }
+        }
+        for (Object mappedStatement : configuration.getMappedStatements()) {
+            if (mappedStatement instanceof MappedStatement) {
+                ParameterMap parameterMap = ((MappedStatement) mappedStatement).getParameterMap();
+                if (parameterMap != null && parameterMap.getType() != null) {
+                    pending.add(parameterMap.getType());
+                }
+                //resultType生成的-Inline结果映射只挂在语句上，不在configuration.getResultMaps()里
+                for (ResultMap resultMap : ((MappedStatement) mappedStatement).getResultMaps()) {
+                    addResultMap(resultMap, pending);
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            Class<?> type = pending.poll();
+            if (!isCandidate(type) || !types.add(type)) {
+                continue;
+            }
+            Reflector reflector = Reflector.forClass(type);
+            for (String property : reflector.getGetablePropertyNames()) {
+                pending.add(reflector.getGetterType(property));
+            }
+            for (String property : reflector.getSetablePropertyNames()) {
+                pending.add(reflector.getSetterType(property));
+            }
+        }
+        return types;
+    }
+
+    private void addResultMap(ResultMap resultMap, Deque<Class<?>> pending) {
+        pending.add(resultMap.getType());
+        for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+            if (resultMapping.getJavaType() != null) {
+                pending.add(resultMapping.getJavaType());
+            }
+        }
+    }
+
+    private boolean isCandidate(Class<?> type) {
+        TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+        return !type.isPrimitive()
+                && !type.isArray()
+                && !type.getName().startsWith("java.")
+                && !type.getName().startsWith("javax.")
+                && !typeHandlerRegistry.hasTypeHandler(type);
+    }
+
+}
@@ -42,6 +42,8 @@ import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * 注解方式构建mapper
@@ -241,6 +243,12 @@ public class MapperAnnotationBuilder {
             boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
             boolean flushCache = !isSelect;
             boolean useCache = isSelect;
+            boolean streaming = false;
+            boolean useReplica = true;
+            String shardOrderBy = null;
+            boolean adaptiveTimeout = false;
+            boolean circuitBreaker = false;
+            boolean coalesce = false;
 
             KeyGenerator keyGenerator;
             String keyProperty = "id";
@@ -269,6 +277,12 @@ public class MapperAnnotationBuilder {
                 timeout = options.timeout() > -1 ? options.timeout() : null;
                 statementType = options.statementType();
                 resultSetType = options.resultSetType();
+                streaming = options.streaming();
+                useReplica = options.useReplica();
+                shardOrderBy = "".equals(options.shardOrderBy()) ? null : options.shardOrderBy();
+                adaptiveTimeout = options.adaptiveTimeout();
+                circuitBreaker = options.circuitBreaker();
+                coalesce = options.coalesce();
             }
 
             String resultMapId = null;
@@ -311,7 +325,13 @@ public class MapperAnnotationBuilder {
                     null,
                     languageDriver,
                     // ResultSets
-                    null);
+                    null,
+                    streaming,
+                    useReplica,
+                    shardOrderBy,
+                    adaptiveTimeout,
+                    circuitBreaker,
+                    coalesce);
         }
     }
 
@@ -334,7 +354,8 @@ public class MapperAnnotationBuilder {
         Class<?>[] parameterTypes = method.getParameterTypes();
         for (int i = 0; i < parameterTypes.length; i++) {
             //如果参数不是RowBounds，ResultHandler这两个参数 其余的都是用户定义的
-            if (!RowBounds.class.isAssignableFrom(parameterTypes[i]) && !ResultHandler.class.isAssignableFrom(parameterTypes[i])) {
+            if (!RowBounds.class.isAssignableFrom(parameterTypes[i]) && !ResultHandler.class.isAssignableFrom(parameterTypes[i])
+                    && !Collector.class.isAssignableFrom(parameterTypes[i])) {
                 if (parameterType == null) {
                     parameterType = parameterTypes[i];
                 } else {
@@ -346,6 +367,11 @@ public class MapperAnnotationBuilder {
     }
 
     private Class<?> getReturnType(Method method) {
+        //参数里有Collector时，方法返回的是汇总结果，每一行的类型要从@ResultType或者Collector的类型参数里找
+        Class<?> collectedType = getCollectedType(method);
+        if (collectedType != null) {
+            return collectedType;
+        }
         Class<?> returnType = method.getReturnType();
         // issue #508
         if (void.class.equals(returnType)) {
@@ -353,7 +379,8 @@ public class MapperAnnotationBuilder {
             if (rt != null) {
                 returnType = rt.value();
             }
-        } else if (Collection.class.isAssignableFrom(returnType)) {
+        } else if (Collection.class.isAssignableFrom(returnType) || Stream.class.equals(returnType)) {
+            //Stream<T>和List<T>一样取元素的类型
             Type returnTypeParameter = method.getGenericReturnType();
             if (returnTypeParameter instanceof ParameterizedType) {
                 Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
@@ -391,6 +418,36 @@ public class MapperAnnotationBuilder {
         return returnType;
     }
 
+    private Class<?> getCollectedType(Method method) {
+        Type[] parameterTypes = method.getGenericParameterTypes();
+        for (Type parameterType : parameterTypes) {
+            Class<?> rawType = parameterType instanceof ParameterizedType
+                    ? (Class<?>) ((ParameterizedType) parameterType).getRawType()
+                    : parameterType instanceof Class ? (Class<?>) parameterType : null;
+            if (rawType == null || !Collector.class.isAssignableFrom(rawType)) {
+                continue;
+            }
+            ResultType rt = method.getAnnotation(ResultType.class);
+            if (rt != null) {
+                return rt.value();
+            }
+            if (parameterType instanceof ParameterizedType) {
+                //Collector<T, A, R>的T，通常写成? super T
+                Type elementType = ((ParameterizedType) parameterType).getActualTypeArguments()[0];
+                if (elementType instanceof WildcardType && ((WildcardType) elementType).getLowerBounds().length == 1) {
+                    elementType = ((WildcardType) elementType).getLowerBounds()[0];
+                }
+                if (elementType instanceof Class) {
+                    return (Class<?>) elementType;
+                } else if (elementType instanceof ParameterizedType) {
+                    return (Class<?>) ((ParameterizedType) elementType).getRawType();
+                }
+            }
+            return Object.class;
+        }
+        return null;
+    }
+
     private SqlSource getSqlSourceFromAnnotations(Method method, Class<?> parameterType, LanguageDriver languageDriver) {
         try {
             Class<? extends Annotation> sqlAnnotationType = getSqlAnnotationType(method);
@@ -483,7 +540,9 @@ public class MapperAnnotationBuilder {
                     flags,
                     null,
                     null,
-                    isLazy(result));
+                    isLazy(result),
+                    batchSize(result),
+                    batchKey(result));
             resultMappings.add(resultMapping);
         }
     }
@@ -509,6 +568,24 @@ public class MapperAnnotationBuilder {
         return isLazy;
     }
 
+    private int batchSize(Result result) {
+        if (result.one().select().length() > 0) {
+            return result.one().batchSize();
+        } else if (result.many().select().length() > 0) {
+            return result.many().batchSize();
+        }
+        return 0;
+    }
+
+    private String batchKey(Result result) {
+        if (result.one().select().length() > 0) {
+            return nullOrEmpty(result.one().batchKey());
+        } else if (result.many().select().length() > 0) {
+            return nullOrEmpty(result.many().batchKey());
+        }
+        return null;
+    }
+
     private boolean hasNestedSelect(Result result) {
         if (result.one().select().length() > 0 && result.many().select().length() > 0) {
             throw new BuilderException("Cannot use both @One and @Many annotations in the same @Result");
@@ -577,7 +654,8 @@ public class MapperAnnotationBuilder {
 
         assistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass, resultSetTypeEnum,
                 flushCache, useCache, false,
-                keyGenerator, keyProperty, keyColumn, null, languageDriver, null);
+                keyGenerator, keyProperty, keyColumn, null, languageDriver, null, false, true, null,
+                false, false, false);
 
         id = assistant.applyCurrentNamespace(id, false);
 
@@ -318,6 +318,14 @@ public class XMLConfigBuilder extends BaseBuilder {
      * <setting name="enhancementEnabled" value="false"/>
      * <setting name="defaultExecutorType" value="SIMPLE"/>
      * <setting name="defaultStatementTimeout" value="25000"/>
+     * <setting name="streamingMemoryBudget" value="4194304"/>
+     * <setting name="adaptiveTimeoutMultiplier" value="4"/>
+     * <setting name="circuitBreakerWindowSize" value="20"/>
+     * <setting name="circuitBreakerFailureRateThreshold" value="50"/>
+     * <setting name="circuitBreakerSlowCallThreshold" value="0"/>
+     * <setting name="circuitBreakerOpenDuration" value="10000"/>
+     * <setting name="physicalPaginationEnabled" value="false"/>
+     * <setting name="paginationDialect" value="mysql"/>
      * <setting name="safeRowBoundsEnabled" value="false"/>
      * <setting name="mapUnderscoreToCamelCase" value="false"/>
      * <setting name="localCacheScope" value="SESSION"/>
@@ -358,6 +366,16 @@ public class XMLConfigBuilder extends BaseBuilder {
             configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
             //超时时间 默认是没有设置超时时间
             configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
+            //流式读取每次fetch的内存预算
+            configuration.setStreamingMemoryBudget(integerValueOf(props.getProperty("streamingMemoryBudget"), 4 * 1024 * 1024));
+            configuration.setAdaptiveTimeoutMultiplier(integerValueOf(props.getProperty("adaptiveTimeoutMultiplier"), 4));
+            configuration.setCircuitBreakerWindowSize(integerValueOf(props.getProperty("circuitBreakerWindowSize"), 20));
+            configuration.setCircuitBreakerFailureRateThreshold(integerValueOf(props.getProperty("circuitBreakerFailureRateThreshold"), 50));
+            configuration.setCircuitBreakerSlowCallThreshold(integerValueOf(props.getProperty("circuitBreakerSlowCallThreshold"), 0));
+            configuration.setCircuitBreakerOpenDuration(integerValueOf(props.getProperty("circuitBreakerOpenDuration"), 10000));
+            //RowBounds用数据库的物理分页
+            configuration.setPhysicalPaginationEnabled(booleanValueOf(props.getProperty("physicalPaginationEnabled"), false));
+            configuration.setPaginationDialect(props.getProperty("paginationDialect"));
             //是否将DB字段自动映射到驼峰式Java属性（A_COLUMN-->aColumn）
             configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
             //嵌套语句上使用RowBounds
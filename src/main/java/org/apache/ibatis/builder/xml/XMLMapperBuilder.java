@@ -529,13 +529,16 @@ public class XMLMapperBuilder extends BaseBuilder {
         String foreignColumn = context.getStringAttribute("foreignColumn");
         //判断是否是懒加载,如果没有配置会获取全局的配置
         boolean lazy = "lazy".equals(context.getStringAttribute("fetchType", configuration.isLazyLoadingEnabled() ? "lazy" : "eager"));
+        //嵌套查询批量加载，把多行的key合并成IN查询
+        int batchSize = context.getIntAttribute("batchSize", 0);
+        String batchKey = context.getStringAttribute("batchKey");
         Class<?> javaTypeClass = resolveClass(javaType);
         @SuppressWarnings("unchecked")
         Class<? extends TypeHandler<?>> typeHandlerClass = (Class<? extends TypeHandler<?>>) resolveClass(typeHandler);
         JdbcType jdbcTypeEnum = resolveJdbcType(jdbcType);
         //调builderAssistant.buildResultMapping
         return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap,
-                notNullColumn, columnPrefix, typeHandlerClass, flags, resulSet, foreignColumn, lazy);
+                notNullColumn, columnPrefix, typeHandlerClass, flags, resulSet, foreignColumn, lazy, batchSize, batchKey);
     }
 
     /**
@@ -126,6 +126,17 @@ public class XMLStatementBuilder extends BaseBuilder {
     //仅针对嵌套结果 select 语句适用：如果为 true，就是假设包含了嵌套结果集或是分组了，这样的话当返回一个主结果行的时候，就不会发生有对前面结果集的引用的情况。
     //这就使得在获取嵌套的结果集的时候不至于导致内存不够用。默认值：false。 
     boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
+    //流式读取大结果集，配合ResultHandler使用，不缓存结果
+    boolean streaming = context.getBooleanAttribute("streaming", false);
+    //配置了读写分离时，select是否可以走从库
+    boolean useReplica = context.getBooleanAttribute("useReplica", true);
+    //分库时没有分片键的select会查所有库，合并结果时按这个排序，比如 "createTime desc, id"
+    String shardOrderBy = context.getStringAttribute("shardOrderBy");
+    //按最近耗时自动收紧超时、失败太多时熔断
+    boolean adaptiveTimeout = context.getBooleanAttribute("adaptiveTimeout", false);
+    boolean circuitBreaker = context.getBooleanAttribute("circuitBreaker", false);
+    //并发的相同查询合并成一次
+    boolean coalesce = context.getBooleanAttribute("coalesce", false);
 
     //解析之前先替换<include>SQL片段
     XMLIncludeTransformer includeParser = new XMLIncludeTransformer(configuration, builderAssistant);
@@ -161,7 +172,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, streaming, useReplica, shardOrderBy,
+        adaptiveTimeout, circuitBreaker, coalesce);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
@@ -208,7 +220,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered,
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, null);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, null, false, true, null,
+        false, false, false);
 
     id = builderAssistant.applyCurrentNamespace(id, false);
 
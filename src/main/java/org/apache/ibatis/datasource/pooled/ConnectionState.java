@@ -0,0 +1,152 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 物理连接的会话状态在本地的缓存
+ * 自动提交、事务隔离级别、只读、catalog和schema读过或者设置过一次之后就记在这里，
+ * 再读直接返回，再设置成同样的值就不调用驱动了，很多驱动每次调用都是一次网络往返。
+ * 和PreparedStatement缓存一样属于物理连接，连接重新包装时要传下去。
+ * 只有经过代理连接的调用才会被记录，直接执行SET之类的SQL改了会话状态的话，缓存就不准了。
+ */
+class ConnectionState {
+
+    private static final String GET_AUTO_COMMIT = "getAutoCommit";
+    private static final String SET_AUTO_COMMIT = "setAutoCommit";
+    private static final String GET_TRANSACTION_ISOLATION = "getTransactionIsolation";
+    private static final String SET_TRANSACTION_ISOLATION = "setTransactionIsolation";
+    private static final String IS_READ_ONLY = "isReadOnly";
+    private static final String SET_READ_ONLY = "setReadOnly";
+    private static final String GET_CATALOG = "getCatalog";
+    private static final String SET_CATALOG = "setCatalog";
+    private static final String GET_SCHEMA = "getSchema";
+    private static final String SET_SCHEMA = "setSchema";
+
+    //null表示还不知道
+    private Boolean autoCommit;
+    private Integer transactionIsolation;
+    private Boolean readOnly;
+    //catalog和schema本身可能就是null，所以另外记是否已知
+    private boolean catalogKnown;
+    private String catalog;
+    private boolean schemaKnown;
+    private String schema;
+
+    static boolean isTracked(String methodName) {
+        return GET_AUTO_COMMIT.equals(methodName) || SET_AUTO_COMMIT.equals(methodName)
+                || GET_TRANSACTION_ISOLATION.equals(methodName) || SET_TRANSACTION_ISOLATION.equals(methodName)
+                || IS_READ_ONLY.equals(methodName) || SET_READ_ONLY.equals(methodName)
+                || GET_CATALOG.equals(methodName) || SET_CATALOG.equals(methodName)
+                || GET_SCHEMA.equals(methodName) || SET_SCHEMA.equals(methodName);
+    }
+
+    /**
+     * 处理isTracked的方法：读的时候优先用缓存，写的时候值没变就跳过
+     */
+    Object invoke(Connection realConnection, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+        if (GET_AUTO_COMMIT.equals(methodName)) {
+            return getAutoCommit(realConnection);
+        } else if (GET_TRANSACTION_ISOLATION.equals(methodName)) {
+            if (transactionIsolation == null) {
+                transactionIsolation = realConnection.getTransactionIsolation();
+            }
+            return transactionIsolation;
+        } else if (IS_READ_ONLY.equals(methodName)) {
+            if (readOnly == null) {
+                readOnly = realConnection.isReadOnly();
+            }
+            return readOnly;
+        } else if (GET_CATALOG.equals(methodName)) {
+            if (!catalogKnown) {
+                catalog = realConnection.getCatalog();
+                catalogKnown = true;
+            }
+            return catalog;
+        } else if (GET_SCHEMA.equals(methodName)) {
+            if (!schemaKnown) {
+                schema = realConnection.getSchema();
+                schemaKnown = true;
+            }
+            return schema;
+        }
+        Object value = args[0];
+        if (isCurrent(methodName, value)) {
+            return null;
+        }
+        //先当作不知道，设置成功了才记下新值，失败的话下次再问驱动
+        forget(methodName);
+        method.invoke(realConnection, args);
+        remember(methodName, value);
+        return null;
+    }
+
+    boolean getAutoCommit(Connection realConnection) throws SQLException {
+        if (autoCommit == null) {
+            autoCommit = realConnection.getAutoCommit();
+        }
+        return autoCommit;
+    }
+
+    private boolean isCurrent(String methodName, Object value) {
+        if (SET_AUTO_COMMIT.equals(methodName)) {
+            return value.equals(autoCommit);
+        } else if (SET_TRANSACTION_ISOLATION.equals(methodName)) {
+            return value.equals(transactionIsolation);
+        } else if (SET_READ_ONLY.equals(methodName)) {
+            return value.equals(readOnly);
+        } else if (SET_CATALOG.equals(methodName)) {
+            return catalogKnown && (value == null ? catalog == null : value.equals(catalog));
+        } else {
+            return schemaKnown && (value == null ? schema == null : value.equals(schema));
+        }
+    }
+
+    private void forget(String methodName) {
+        if (SET_AUTO_COMMIT.equals(methodName)) {
+            autoCommit = null;
+        } else if (SET_TRANSACTION_ISOLATION.equals(methodName)) {
+            transactionIsolation = null;
+        } else if (SET_READ_ONLY.equals(methodName)) {
+            readOnly = null;
+        } else if (SET_CATALOG.equals(methodName)) {
+            catalogKnown = false;
+        } else if (SET_SCHEMA.equals(methodName)) {
+            schemaKnown = false;
+        }
+    }
+
+    private void remember(String methodName, Object value) {
+        if (SET_AUTO_COMMIT.equals(methodName)) {
+            autoCommit = (Boolean) value;
+        } else if (SET_TRANSACTION_ISOLATION.equals(methodName)) {
+            transactionIsolation = (Integer) value;
+        } else if (SET_READ_ONLY.equals(methodName)) {
+            readOnly = (Boolean) value;
+        } else if (SET_CATALOG.equals(methodName)) {
+            catalog = (String) value;
+            catalogKnown = true;
+        } else if (SET_SCHEMA.equals(methodName)) {
+            schema = (String) value;
+            schemaKnown = true;
+        }
+    }
+
+}
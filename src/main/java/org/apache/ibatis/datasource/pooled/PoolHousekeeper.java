@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 连接池的后台维护线程
+ * 定时把空闲连接拿出池子校验，这样取连接的线程就不用在池锁里等侦测查询；
+ * 同时关掉到期的连接，并补足最少空闲连接，让建连接的开销不落在请求线程上；
+ * 开启泄漏检测时报告占用太久的连接
+ * <p>
+ * 线程是守护线程，只弱引用数据源：应用没有调用close()就丢掉了数据源时，数据源照样能被回收(finalize里会close)，
+ * 维护线程发现数据源没了就自己停掉
+ */
+class PoolHousekeeper implements Runnable {
+
+    private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+    private final WeakReference<PooledDataSource> dataSource;
+    private final ScheduledExecutorService executor;
+    //补连接的任务，取连接的线程发现空闲连接不够时提交
+    private final Runnable fillTask = new Runnable() {
+        @Override
+        public void run() {
+            PooledDataSource pool = dataSource.get();
+            if (pool == null) {
+                shutdown();
+                return;
+            }
+            try {
+                pool.fillIdleConnections();
+            } catch (Throwable t) {
+                log.warn("Filling the connection pool failed. Cause: " + t);
+            }
+        }
+    };
+    //已经提交还没执行的补连接任务，避免取一次连接就提交一次
+    private final AtomicBoolean fillRequested = new AtomicBoolean();
+
+    PoolHousekeeper(PooledDataSource dataSource, long interval) {
+        this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PooledDataSource-housekeeper");
+                //不能因为维护线程让应用退不出去
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        PooledDataSource pool = dataSource.get();
+        if (pool == null) {
+            shutdown();
+            return;
+        }
+        try {
+            pool.evictIdleConnections();
+            pool.validateIdleConnections();
+            pool.fillIdleConnections();
+            pool.detectLeaks();
+        } catch (Throwable t) {
+            //维护线程不能死掉，记下来下次再试
+            log.warn("Housekeeping of the connection pool failed. Cause: " + t);
+        }
+    }
+
+    void requestFill() {
+        if (fillRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillRequested.set(false);
+                        fillTask.run();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //已经停掉了
+                fillRequested.set(false);
+            }
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
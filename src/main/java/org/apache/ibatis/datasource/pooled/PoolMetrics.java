@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * 连接池的监控扩展点
+ * 可以把数据转发给自己的监控系统，通过 PooledDataSource 的 poolMetricsType 属性配置实现类。
+ * 有的回调是在持有池锁的时候调用的，实现必须很快，并且不能再调用连接池。
+ */
+public interface PoolMetrics {
+
+    /**
+     * 连接池初始化监控时调用，活动/空闲/等待中的连接数可以从 PoolState 里读取
+     */
+    void init(PoolState poolState);
+
+    /**
+     * 一次取连接花的时间(毫秒)，包括等待
+     */
+    void recordWaitTime(long millis);
+
+    /**
+     * 一个连接从取出到归还(或被超时收回)的时间(毫秒)
+     */
+    void recordCheckoutTime(long millis);
+
+    /**
+     * 一个连接取出的时间超过了泄漏检测阈值
+     *
+     * @param checkoutTime  已经取出的时间(毫秒)
+     * @param checkoutStack 取连接时的调用栈
+     */
+    void recordLeak(long checkoutTime, Throwable checkoutStack);
+
+}
@@ -21,7 +21,7 @@ import java.util.List;
 /**
  * 对于连接池状态的描述
  */
-public class PoolState {
+public class PoolState implements PoolStateMXBean {
     //对pooledDataSource的引用
     protected PooledDataSource dataSource;
 
@@ -29,6 +29,8 @@ public class PoolState {
     protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
     //活动的连接
     protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
+    //被池子占用但不在上面两个列表里的连接数(正在池外新建或者正在后台校验)，也算在最大连接数里
+    protected int pendingConnectionCount = 0;
     //----------以下是一些统计信息----------
     //请求次数
     protected long requestCount = 0;
@@ -46,6 +48,11 @@ public class PoolState {
     protected long hadToWaitCount = 0;
     //坏的连接次数
     protected long badConnectionCount = 0;
+    //检测到的疑似泄漏的连接数
+    protected long leakedConnectionCount = 0;
+    //取连接耗时和连接被占用时长的分布，不用加锁就能读
+    protected final LatencyHistogram waitTimeHistogram = new LatencyHistogram();
+    protected final LatencyHistogram checkoutTimeHistogram = new LatencyHistogram();
 
     public PoolState(PooledDataSource dataSource) {
         this.dataSource = dataSource;
@@ -88,6 +95,65 @@ public class PoolState {
     }
 
 
+    public synchronized int getPendingConnectionCount() {
+        return pendingConnectionCount;
+    }
+
+    public synchronized long getLeakedConnectionCount() {
+        return leakedConnectionCount;
+    }
+
+    public long getWaitTimeMedian() {
+        return waitTimeHistogram.getValueAtPercentile(50);
+    }
+
+    public long getWaitTime99thPercentile() {
+        return waitTimeHistogram.getValueAtPercentile(99);
+    }
+
+    public long getWaitTimeMax() {
+        return waitTimeHistogram.getMaxValue();
+    }
+
+    public long getCheckoutTimeMedian() {
+        return checkoutTimeHistogram.getValueAtPercentile(50);
+    }
+
+    public long getCheckoutTime99thPercentile() {
+        return checkoutTimeHistogram.getValueAtPercentile(99);
+    }
+
+    public long getCheckoutTimeMax() {
+        return checkoutTimeHistogram.getMaxValue();
+    }
+
+    public LatencyHistogram getWaitTimeHistogram() {
+        return waitTimeHistogram;
+    }
+
+    public LatencyHistogram getCheckoutTimeHistogram() {
+        return checkoutTimeHistogram;
+    }
+
+    //记录一次取连接的耗时
+    void recordWaitTime(long waitTime) {
+        waitTimeHistogram.record(waitTime);
+        PoolMetrics metrics = dataSource.getPoolMetrics();
+        if (metrics != null) {
+            metrics.recordWaitTime(waitTime);
+        }
+    }
+
+    //记录一次连接的占用时长，调用时持有池锁
+    void recordCheckoutTime(long checkoutTime) {
+        accumulatedCheckoutTime += checkoutTime;
+        checkoutTimeHistogram.record(checkoutTime);
+        PoolMetrics metrics = dataSource.getPoolMetrics();
+        if (metrics != null) {
+            metrics.recordCheckoutTime(checkoutTime);
+        }
+    }
+
     public synchronized int getIdleConnectionCount() {
         return idleConnections.size();
     }
@@ -112,16 +178,25 @@ public class PoolState {
         builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
         builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
         builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+        builder.append("\n poolMinIdleConnections         ").append(dataSource.poolMinimumIdleConnections);
+        builder.append("\n poolMaxLifetime                ").append(dataSource.poolMaximumLifetime);
+        builder.append("\n poolMaxIdleTime                ").append(dataSource.poolMaximumIdleTime);
         builder.append("\n ---STATUS-----------------------------------------------------");
         builder.append("\n activeConnections              ").append(getActiveConnectionCount());
         builder.append("\n idleConnections                ").append(getIdleConnectionCount());
         builder.append("\n requestCount                   ").append(getRequestCount());
         builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
         builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
+        builder.append("\n checkoutTime50th/99th/max      ").append(getCheckoutTimeMedian()).append('/')
+                .append(getCheckoutTime99thPercentile()).append('/').append(getCheckoutTimeMax());
         builder.append("\n claimedOverdue                 ").append(getClaimedOverdueConnectionCount());
         builder.append("\n averageOverdueCheckoutTime     ").append(getAverageOverdueCheckoutTime());
         builder.append("\n hadToWait                      ").append(getHadToWaitCount());
         builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
+        builder.append("\n waitTime50th/99th/max          ").append(getWaitTimeMedian()).append('/')
+                .append(getWaitTime99thPercentile()).append('/').append(getWaitTimeMax());
+        builder.append("\n pendingConnections             ").append(getPendingConnectionCount());
+        builder.append("\n leakedConnectionCount          ").append(getLeakedConnectionCount());
         builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
         builder.append("\n===============================================================");
         return builder.toString();
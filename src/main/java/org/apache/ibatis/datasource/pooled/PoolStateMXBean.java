@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * 通过JMX暴露的连接池状态
+ * 设置 PooledDataSource 的 poolJmxName 属性后注册到平台的MBeanServer
+ */
+public interface PoolStateMXBean {
+
+    int getActiveConnectionCount();
+
+    int getIdleConnectionCount();
+
+    int getPendingConnectionCount();
+
+    long getRequestCount();
+
+    long getHadToWaitCount();
+
+    long getBadConnectionCount();
+
+    long getClaimedOverdueConnectionCount();
+
+    long getLeakedConnectionCount();
+
+    long getWaitTimeMedian();
+
+    long getWaitTime99thPercentile();
+
+    long getWaitTimeMax();
+
+    long getCheckoutTimeMedian();
+
+    long getCheckoutTime99thPercentile();
+
+    long getCheckoutTimeMax();
+
+}
@@ -20,8 +20,11 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  * 池化的连接
@@ -29,7 +32,18 @@ import java.sql.SQLException;
 class PooledConnection implements InvocationHandler {
 
     private static final String CLOSE = "close";
+    private static final String PREPARE_STATEMENT = "prepareStatement";
+    private static final String PREPARE_CALL = "prepareCall";
+    private static final String CREATE_STATEMENT = "createStatement";
+    private static final String SET_SAVEPOINT = "setSavepoint";
+    private static final String COMMIT = "commit";
+    private static final String ROLLBACK = "rollback";
+    private static final String SET_AUTO_COMMIT = "setAutoCommit";
+    private static final String GET_CONNECTION = "getConnection";
     private static final Class<?>[] IFACES = new Class<?>[]{Connection.class};
+    private static final Class<?>[] STATEMENT_IFACES = new Class<?>[]{Statement.class};
+    private static final Class<?>[] PREPARED_STATEMENT_IFACES = new Class<?>[]{PreparedStatement.class};
+    private static final Class<?>[] CALLABLE_STATEMENT_IFACES = new Class<?>[]{CallableStatement.class};
 
     private int hashCode = 0;
     //对连接池的引用
@@ -45,6 +59,15 @@ class PooledConnection implements InvocationHandler {
     private long lastUsedTimestamp;
     private int connectionTypeCode;
     private boolean valid;
+    //真实连接上的PreparedStatement缓存，连接归还重新包装时要传下去
+    private PooledStatementCache statementCache;
+    //真实连接的会话状态缓存，开启poolTrackConnectionState时使用，同样要传下去
+    private ConnectionState connectionState;
+    //上次commit/rollback之后有没有执行过statement，没有的话归还时不用回滚
+    private boolean dirty;
+    //开启泄漏检测时，取连接的调用栈
+    private Throwable checkoutStack;
+    private boolean leakReported;
 
     /*
      * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -97,6 +120,99 @@ class PooledConnection implements InvocationHandler {
         return proxyConnection;
     }
 
+    /*
+     * Getter for the prepared statement cache of the real connection
+     *
+     * @return The cache, or null if no statement was cached yet
+     */
+    public PooledStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /*
+     * Setter for the prepared statement cache, used when the real connection is wrapped again
+     *
+     * @param statementCache - the cache of the real connection
+     */
+    public void setStatementCache(PooledStatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    /*
+     * Getter for the session state of the real connection, created on first use
+     *
+     * @return The state
+     */
+    public ConnectionState getConnectionState() {
+        if (connectionState == null) {
+            connectionState = new ConnectionState();
+        }
+        return connectionState;
+    }
+
+    /*
+     * Setter for the session state, used when the real connection is wrapped again
+     *
+     * @param connectionState - the state of the real connection
+     */
+    public void setConnectionState(ConnectionState connectionState) {
+        this.connectionState = connectionState;
+    }
+
+    /*
+     * Closes the cached statements, must be called before the real connection is closed
+     */
+    public void clearStatementCache() {
+        if (statementCache != null) {
+            statementCache.clear();
+        }
+    }
+
+    /*
+     * Whether a statement was executed since the last commit or rollback
+     *
+     * @return True if the connection may hold uncommitted work
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /*
+     * Setter for the dirty flag, used when the pool resets the real connection
+     *
+     * @param dirty - the flag
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /*
+     * Getter for the stack of the code that checked this connection out
+     *
+     * @return The stack, or null if leak detection is off
+     */
+    public Throwable getCheckoutStack() {
+        return checkoutStack;
+    }
+
+    /*
+     * Setter for the checkout stack, also resets the leak report
+     *
+     * @param checkoutStack - the stack
+     */
+    public void setCheckoutStack(Throwable checkoutStack) {
+        this.checkoutStack = checkoutStack;
+        this.leakReported = false;
+    }
+
+    public boolean isLeakReported() {
+        return leakReported;
+    }
+
+    public void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+
     /*
      * Gets the hashcode of the real connection (or 0 if it is null)
      *
@@ -251,18 +367,118 @@ class PooledConnection implements InvocationHandler {
                     //除了toString()方法，其他方法调用之前要检查connection是否还是合法的,不合法要抛出SQLException
                     checkConnection();
                 }
+                markDirty(methodName);
+                //开启了会话状态跟踪时，状态的读写先看本地缓存
+                if (dataSource.isPoolTrackConnectionState()) {
+                    if (ConnectionState.isTracked(methodName)) {
+                        Object result = getConnectionState().invoke(realConnection, method, args);
+                        markClean(methodName, args);
+                        return result;
+                    }
+                    //没执行过语句或者是自动提交的，commit是空操作；rollback总是交给驱动
+                    if (isCommit(methodName, args) && (!dirty || getConnectionState().getAutoCommit(realConnection))) {
+                        return null;
+                    }
+                }
+                //开启了statement缓存时，prepareStatement先从缓存里拿
+                if (PREPARE_STATEMENT.equals(methodName) && dataSource.getPoolMaximumCachedStatements() > 0) {
+                    if (statementCache == null) {
+                        statementCache = new PooledStatementCache(dataSource.getPoolMaximumCachedStatements());
+                    }
+                    return trackStatement(methodName, statementCache.prepareStatement(realConnection, proxyConnection, method, args));
+                }
                 //其他的方法，则交给真正的connection去调用
-                return method.invoke(realConnection, args);
+                Object result = method.invoke(realConnection, args);
+                markClean(methodName, args);
+                return trackStatement(methodName, result);
             } catch (Throwable t) {
                 throw ExceptionUtil.unwrapThrowable(t);
             }
         }
     }
 
+    /*
+     * 设置保存点说明事务开始了；语句在执行时才标记，见DirtyTrackingStatement
+     */
+    private void markDirty(String methodName) {
+        if (SET_SAVEPOINT.equals(methodName)) {
+            dirty = true;
+        }
+    }
+
+    /*
+     * 归还时是否回滚要看dirty，这时返回的statement要包一层，执行时标记dirty
+     * 只在prepare时标记不够：复用的statement在commit之后再执行就不会被发现
+     */
+    private Object trackStatement(String methodName, Object statement) {
+        if (!dataSource.isPoolTrackConnectionState() && !dataSource.isPoolValidateOutsideLock()) {
+            return statement;
+        }
+        final Class<?>[] ifaces;
+        if (PREPARE_STATEMENT.equals(methodName)) {
+            ifaces = PREPARED_STATEMENT_IFACES;
+        } else if (PREPARE_CALL.equals(methodName)) {
+            ifaces = CALLABLE_STATEMENT_IFACES;
+        } else if (CREATE_STATEMENT.equals(methodName)) {
+            ifaces = STATEMENT_IFACES;
+        } else {
+            return statement;
+        }
+        return Proxy.newProxyInstance(Statement.class.getClassLoader(), ifaces, new DirtyTrackingStatement((Statement) statement));
+    }
+
+    /*
+     * commit、rollback或者打开自动提交成功之后就干净了
+     */
+    private void markClean(String methodName, Object[] args) {
+        if (isTransactionEnd(methodName, args)) {
+            dirty = false;
+        } else if (SET_AUTO_COMMIT.equals(methodName) && Boolean.TRUE.equals(args[0])) {
+            dirty = false;
+        }
+    }
+
+    //不带保存点的commit和rollback
+    private boolean isTransactionEnd(String methodName, Object[] args) {
+        return (COMMIT.equals(methodName) || ROLLBACK.equals(methodName)) && (args == null || args.length == 0);
+    }
+
+    private boolean isCommit(String methodName, Object[] args) {
+        return COMMIT.equals(methodName) && (args == null || args.length == 0);
+    }
+
     private void checkConnection() throws SQLException {
         if (!valid) {
             throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
         }
     }
 
+    /**
+     * 执行语句(execute*、addBatch)时把连接标记为dirty
+     */
+    private class DirtyTrackingStatement implements InvocationHandler {
+
+        private final Statement statement;
+
+        private DirtyTrackingStatement(Statement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            if (methodName.startsWith("execute") || "addBatch".equals(methodName)) {
+                dirty = true;
+            }
+            final Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (Throwable t) {
+                throw ExceptionUtil.unwrapThrowable(t);
+            }
+            //返回池化的代理连接，不把真实连接暴露出去
+            return GET_CONNECTION.equals(methodName) ? proxyConnection : result;
+        }
+    }
+
 }
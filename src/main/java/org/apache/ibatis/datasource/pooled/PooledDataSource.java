@@ -15,15 +15,24 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -57,8 +66,34 @@ public class PooledDataSource implements DataSource {
     protected boolean poolPingEnabled = false;
     //用来配置 poolPingQuery 多次时间被用一次
     protected int poolPingConnectionsNotUsedFor = 0;
+    //每个物理连接缓存的PreparedStatement数量，0表示不缓存
+    protected int poolMaximumCachedStatements = 0;
+    //在池锁外面做连接的校验和回滚，避免一次慢的网络往返挡住所有取连接的线程
+    protected boolean poolValidateOutsideLock = false;
+    //在连接上缓存自动提交、隔离级别等会话状态，跳过没有变化的驱动调用
+    protected boolean poolTrackConnectionState = false;
+    //后台校验空闲连接的间隔(毫秒)，0表示不启用
+    protected int poolHousekeepingInterval = 0;
+    //连接池最少保持的空闲连接数，由后台线程补足
+    protected int poolMinimumIdleConnections = 0;
+    //物理连接最长的存活时间(毫秒)，0表示不限制
+    protected int poolMaximumLifetime = 0;
+    //空闲连接超过这个时间(毫秒)没用就关掉，但不会少于最少空闲连接数，0表示不限制
+    protected int poolMaximumIdleTime = 0;
+    //连接被取出超过这个时间(毫秒)还没归还就报告疑似泄漏，0表示不检测
+    protected int poolLeakDetectionThreshold = 0;
+    //注册到JMX的名字，不设置就不注册
+    protected String poolJmxName;
+    //可插拔的监控实现
+    private volatile PoolMetrics poolMetrics;
+    //只配置了最少空闲连接/存活时间而没有配置维护间隔时，后台线程的默认间隔
+    private static final int DEFAULT_HOUSEKEEPING_INTERVAL = 30000;
+    //后台维护线程，第一次取连接的时候才启动
+    private volatile PoolHousekeeper housekeeper;
     //URL+username+password的hash  应该是来标示一个连接
     private int expectedConnectionTypeCode;
+    //每次forceCloseAll加一，在锁外校验、新建的连接发现变了就不再放回池里
+    private int poolGeneration;
 
     //datasource默认只有一个 采用非池化的
     public PooledDataSource() {
@@ -223,6 +258,136 @@ public class PooledDataSource implements DataSource {
         forceCloseAll();
     }
 
+    /*
+     * The number of prepared statements cached per physical connection.
+     * Cached statements survive session close and connection return to the pool.
+     *
+     * @param poolMaximumCachedStatements The cache size, 0 disables the cache
+     */
+    public void setPoolMaximumCachedStatements(int poolMaximumCachedStatements) {
+        this.poolMaximumCachedStatements = poolMaximumCachedStatements;
+        forceCloseAll();
+    }
+
+    /*
+     * Validates and resets connections outside of the pool lock, so a slow
+     * ping or rollback does not block other threads. Returned connections
+     * are only rolled back when a statement was created since the last
+     * commit or rollback.
+     *
+     * @param poolValidateOutsideLock True to validate and reset outside of the lock
+     */
+    public void setPoolValidateOutsideLock(boolean poolValidateOutsideLock) {
+        this.poolValidateOutsideLock = poolValidateOutsideLock;
+        forceCloseAll();
+    }
+
+    /*
+     * Tracks auto-commit, isolation level, read-only, catalog and schema of each
+     * physical connection locally. Reads are answered from the cache, writes of
+     * the current value are skipped, and commit/rollback are skipped when nothing
+     * was done since the last one. Only calls through the pooled connection are
+     * seen, so do not change these settings with plain SQL when this is on.
+     *
+     * @param poolTrackConnectionState True to track the session state
+     */
+    public void setPoolTrackConnectionState(boolean poolTrackConnectionState) {
+        this.poolTrackConnectionState = poolTrackConnectionState;
+        forceCloseAll();
+    }
+
+    /*
+     * The interval of the background thread that validates idle connections.
+     *
+     * @param poolHousekeepingInterval The interval in milliseconds, 0 disables the thread
+     */
+    public void setPoolHousekeepingInterval(int poolHousekeepingInterval) {
+        this.poolHousekeepingInterval = poolHousekeepingInterval;
+        stopHousekeeper();
+        forceCloseAll();
+    }
+
+    /*
+     * The number of idle connections the background thread keeps ready, so
+     * steady state traffic never opens a physical connection itself.
+     *
+     * @param poolMinimumIdleConnections The minimum number of idle connections
+     */
+    public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+        this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+        stopHousekeeper();
+        forceCloseAll();
+    }
+
+    /*
+     * The maximum age of a physical connection. Each connection is retired up
+     * to 10% earlier, so connections created together do not expire together.
+     *
+     * @param poolMaximumLifetime The lifetime in milliseconds, 0 disables retirement
+     */
+    public void setPoolMaximumLifetime(int poolMaximumLifetime) {
+        this.poolMaximumLifetime = poolMaximumLifetime;
+        stopHousekeeper();
+        forceCloseAll();
+    }
+
+    /*
+     * The time an idle connection may stay unused before the background
+     * thread closes it, as long as more than the minimum stay idle.
+     *
+     * @param poolMaximumIdleTime The idle time in milliseconds, 0 disables eviction
+     */
+    public void setPoolMaximumIdleTime(int poolMaximumIdleTime) {
+        this.poolMaximumIdleTime = poolMaximumIdleTime;
+        stopHousekeeper();
+        forceCloseAll();
+    }
+
+    /*
+     * Connections checked out for longer than this are reported as possible
+     * leaks, together with the stack of the code that checked them out.
+     * Capturing the stack costs a little on every checkout, so it is off by default.
+     *
+     * @param poolLeakDetectionThreshold The threshold in milliseconds, 0 disables detection
+     */
+    public void setPoolLeakDetectionThreshold(int poolLeakDetectionThreshold) {
+        this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+        stopHousekeeper();
+        forceCloseAll();
+    }
+
+    /*
+     * Registers the pool state as an MXBean on the platform MBean server under
+     * org.apache.ibatis.datasource.pooled:type=PooledDataSource,name=poolJmxName
+     *
+     * @param poolJmxName The name, null unregisters the pool
+     */
+    public void setPoolJmxName(String poolJmxName) {
+        unregisterMBean();
+        this.poolJmxName = poolJmxName;
+        registerMBean();
+    }
+
+    /*
+     * Plugs in a metrics implementation by class name, for configuration files.
+     *
+     * @param poolMetricsType The name of a PoolMetrics implementation with a no-arg constructor
+     */
+    public void setPoolMetricsType(String poolMetricsType) {
+        try {
+            setPoolMetrics((PoolMetrics) Resources.classForName(poolMetricsType).newInstance());
+        } catch (Exception e) {
+            throw new DataSourceException("Error creating PoolMetrics '" + poolMetricsType + "'. Cause: " + e, e);
+        }
+    }
+
+    public void setPoolMetrics(PoolMetrics poolMetrics) {
+        if (poolMetrics != null) {
+            poolMetrics.init(state);
+        }
+        this.poolMetrics = poolMetrics;
+    }
+
     public String getDriver() {
         return dataSource.getDriver();
     }
@@ -279,6 +444,58 @@ public class PooledDataSource implements DataSource {
         return poolPingConnectionsNotUsedFor;
     }
 
+    public int getPoolMaximumCachedStatements() {
+        return poolMaximumCachedStatements;
+    }
+
+    public boolean isPoolValidateOutsideLock() {
+        return poolValidateOutsideLock;
+    }
+
+    public boolean isPoolTrackConnectionState() {
+        return poolTrackConnectionState;
+    }
+
+    public int getPoolHousekeepingInterval() {
+        return poolHousekeepingInterval;
+    }
+
+    public int getPoolMinimumIdleConnections() {
+        return poolMinimumIdleConnections;
+    }
+
+    public int getPoolMaximumLifetime() {
+        return poolMaximumLifetime;
+    }
+
+    public int getPoolMaximumIdleTime() {
+        return poolMaximumIdleTime;
+    }
+
+    public int getPoolLeakDetectionThreshold() {
+        return poolLeakDetectionThreshold;
+    }
+
+    public String getPoolJmxName() {
+        return poolJmxName;
+    }
+
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    /**
+     * 预热连接池：在请求到来之前就建好最少空闲连接数个连接，并启动后台维护线程
+     * 建连接失败(比如数据库还没起来)只记日志，后台线程会继续补
+     * 解析配置时不会调用，要在启动时预热由应用显式调用；否则第一次getConnection时启动后台线程，由它在后台补足
+     */
+    public void warmUp() {
+        fillIdleConnections();
+        if (getHousekeepingPeriod() > 0 && housekeeper == null) {
+            startHousekeeper();
+        }
+    }
+
     /**
      * 当改变连接池的属性的时候就会触发这个类
      * Closes all active and idle connections in the pool
@@ -286,6 +503,8 @@ public class PooledDataSource implements DataSource {
     public void forceCloseAll() {
         synchronized (state) {
             expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+            //正在锁外校验、新建的连接(pendingConnectionCount)不在两个列表里，它们回来时看到代数变了会自己关掉
+            poolGeneration++;
             //关闭所有的activeConnections和idleConnections
             for (int i = state.activeConnections.size(); i > 0; i--) {
                 try {
@@ -299,6 +518,7 @@ public class PooledDataSource implements DataSource {
                         realConn.rollback();
                     }
                     //真实的连接 进行关闭
+                    conn.clearStatementCache();
                     realConn.close();
                 } catch (Exception e) {
                     // ignore
@@ -316,6 +536,7 @@ public class PooledDataSource implements DataSource {
                         realConn.rollback();
                     }
                     //真实连接关闭
+                    conn.clearStatementCache();
                     realConn.close();
                 } catch (Exception e) {
                     // ignore
@@ -342,6 +563,10 @@ public class PooledDataSource implements DataSource {
      * @throws SQLException
      */
     protected void pushConnection(PooledConnection conn) throws SQLException {
+        if (poolValidateOutsideLock) {
+            pushConnectionOutsideLock(conn);
+            return;
+        }
 
         synchronized (state) {
             //先从activeConnections中删除此connection
@@ -349,16 +574,17 @@ public class PooledDataSource implements DataSource {
             //如果归还的时候这个连接是可用的
             if (conn.isValid()) {
                 //如果空闲连接的数量小于最大空间连接数，如果连接的信息没有变化
-                if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+                if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+                        && !isExpired(conn)) {
                     //如果空闲的连接太少，
-                    state.accumulatedCheckoutTime += conn.getCheckoutTime();
+                    state.recordCheckoutTime(conn.getCheckoutTime());
                     //如果不是自动提交 在归还的时候就行回滚
-                    if (!conn.getRealConnection().getAutoCommit()) {
-                        conn.getRealConnection().rollback();
-                    }
+                    rollbackIfNeeded(conn);
                     //归还的时候真正的连接没有关闭 只是在新建一个代理连接即可
                     //new一个新的Connection，加入到idle列表
                     PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+                    newConn.setStatementCache(conn.getStatementCache());
+                    newConn.setConnectionState(conn.getConnectionState());
                     state.idleConnections.add(newConn);
 
                     newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
@@ -372,11 +598,10 @@ public class PooledDataSource implements DataSource {
                     state.notifyAll();
                 } else {
                     //否则，即空闲的连接已经足够了
-                    state.accumulatedCheckoutTime += conn.getCheckoutTime();
-                    if (!conn.getRealConnection().getAutoCommit()) {
-                        conn.getRealConnection().rollback();
-                    }
+                    state.recordCheckoutTime(conn.getCheckoutTime());
+                    rollbackIfNeeded(conn);
                     //那就将真实 connection关闭就可以了
+                    conn.clearStatementCache();
                     conn.getRealConnection().close();
                     if (log.isDebugEnabled()) {
                         log.debug("Closed connection " + conn.getRealHashCode() + ".");
@@ -393,6 +618,110 @@ public class PooledDataSource implements DataSource {
         }
     }
 
+    /**
+     * 归还一个连接，校验和回滚都在池锁外面做
+     * 只有池子里的列表和统计信息的修改才需要锁
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    private void pushConnectionOutsideLock(PooledConnection conn) throws SQLException {
+        //连接还在activeConnections里，别的线程拿不到它，可以放心在锁外面操作
+        boolean valid = conn.isValid();
+        if (valid) {
+            try {
+                resetConnection(conn);
+            } catch (SQLException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Could not roll back connection " + conn.getRealHashCode() + ": " + e.getMessage());
+                }
+                valid = false;
+            }
+        }
+        //连接本身坏了，物理连接要关掉；被超时收回的连接物理连接已经交给别人了，不能关
+        final boolean broken = !valid;
+        boolean close = false;
+        synchronized (state) {
+            //如果已经不在activeConnections里了，说明在这期间被forceCloseAll或者超时收回了
+            if (!state.activeConnections.remove(conn)) {
+                valid = false;
+            }
+            if (valid) {
+                state.recordCheckoutTime(conn.getCheckoutTime());
+                if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+                        && !isExpired(conn)) {
+                    PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+                    newConn.setStatementCache(conn.getStatementCache());
+                    newConn.setConnectionState(conn.getConnectionState());
+                    newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+                    newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+                    state.idleConnections.add(newConn);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+                    }
+                    state.notifyAll();
+                } else {
+                    close = true;
+                }
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+                }
+                state.badConnectionCount++;
+            }
+            conn.invalidate();
+        }
+        //关闭物理连接也是一次网络往返，同样放到锁外面
+        if (broken) {
+            closeRealConnectionQuietly(conn);
+        } else if (close) {
+            conn.clearStatementCache();
+            conn.getRealConnection().close();
+            if (log.isDebugEnabled()) {
+                log.debug("Closed connection " + conn.getRealHashCode() + ".");
+            }
+        }
+    }
+
+    private void closeRealConnectionQuietly(PooledConnection conn) {
+        try {
+            conn.getRealConnection().close();
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+
+    /*
+     * 回滚没提交的数据，上次commit/rollback之后没有创建过statement的就不用再回滚了
+     */
+    private void resetConnection(PooledConnection conn) throws SQLException {
+        if (conn.isDirty()) {
+            if (!isAutoCommit(conn)) {
+                conn.getRealConnection().rollback();
+            }
+            conn.setDirty(false);
+        }
+    }
+
+    /*
+     * 默认模式下归还和取出时的回滚：开启了会话状态跟踪就只回滚写过的连接，否则总是问一下驱动
+     */
+    private void rollbackIfNeeded(PooledConnection conn) throws SQLException {
+        if (poolTrackConnectionState) {
+            resetConnection(conn);
+        } else if (!conn.getRealConnection().getAutoCommit()) {
+            conn.getRealConnection().rollback();
+        }
+    }
+
+    //开启了会话状态跟踪时用缓存的自动提交状态
+    private boolean isAutoCommit(PooledConnection conn) throws SQLException {
+        if (poolTrackConnectionState) {
+            return conn.getConnectionState().getAutoCommit(conn.getRealConnection());
+        }
+        return conn.getRealConnection().getAutoCommit();
+    }
+
     /**
      * 根据用户名和密码获取一个连接
      *
@@ -402,6 +731,26 @@ public class PooledDataSource implements DataSource {
      * @throws SQLException
      */
     private PooledConnection popConnection(String username, String password) throws SQLException {
+        if (housekeeper == null && getHousekeepingPeriod() > 0) {
+            startHousekeeper();
+        }
+        long start = System.currentTimeMillis();
+        PooledConnection conn = poolValidateOutsideLock
+                ? popConnectionOutsideLock(username, password)
+                : popConnectionInsideLock(username, password);
+        state.recordWaitTime(System.currentTimeMillis() - start);
+        //开启泄漏检测时记下是谁取的连接
+        if (poolLeakDetectionThreshold > 0) {
+            conn.setCheckoutStack(new Throwable("Connection " + conn.getRealHashCode() + " was checked out here"));
+        }
+        //空闲连接被取到最少空闲数以下了，让后台线程马上补上
+        if (poolMinimumIdleConnections > 0 && housekeeper != null && state.getIdleConnectionCount() < poolMinimumIdleConnections) {
+            housekeeper.requestFill();
+        }
+        return conn;
+    }
+
+    private PooledConnection popConnectionInsideLock(String username, String password) throws SQLException {
         boolean countedWait = false;
         PooledConnection conn = null;
         long t = System.currentTimeMillis();
@@ -420,7 +769,8 @@ public class PooledDataSource implements DataSource {
                 } else {
                     //如果没有空闲的连接 在小于最大连接的情况下 就新建一个连接
                     // Pool does not have available connection
-                    if (state.activeConnections.size() < poolMaximumActiveConnections) {
+                    //后台线程正在锁外校验、新建的连接也占着名额
+                    if (state.activeConnections.size() + state.pendingConnectionCount < poolMaximumActiveConnections) {
                         //如果activeConnections太少,那就new一个PooledConnection
                         conn = new PooledConnection(dataSource.getConnection(), this);
                         if (log.isDebugEnabled()) {
@@ -428,20 +778,22 @@ public class PooledDataSource implements DataSource {
                         }
                     } else {
                         //如果activeConnections已经很多了，那不能再new了
-                        //取得activeConnections列表的第一个（最老的）
-                        PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-                        long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-                        if (longestCheckoutTime > poolMaximumCheckoutTime) {
+                        //取得activeConnections列表的第一个（最老的），名额全被pending占着时没有可以收回的
+                        PooledConnection oldestActiveConnection = state.activeConnections.isEmpty() ? null : state.activeConnections.get(0);
+                        long longestCheckoutTime = oldestActiveConnection == null ? 0 : oldestActiveConnection.getCheckoutTime();
+                        if (oldestActiveConnection != null && longestCheckoutTime > poolMaximumCheckoutTime) {
                             //如果checkout时间过长，则这个connection标记为overdue（过期）
                             state.claimedOverdueConnectionCount++;
                             state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-                            state.accumulatedCheckoutTime += longestCheckoutTime;
+                            state.recordCheckoutTime(longestCheckoutTime);
                             state.activeConnections.remove(oldestActiveConnection);
-                            if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                                oldestActiveConnection.getRealConnection().rollback();
-                            }
+                            //超时的连接肯定没有正常结束，不管有没有写过都回滚
+                            oldestActiveConnection.setDirty(true);
+                            rollbackIfNeeded(oldestActiveConnection);
                             //删掉最老的连接，然后再new一个新连接
                             conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+                            conn.setStatementCache(oldestActiveConnection.getStatementCache());
+                            conn.setConnectionState(oldestActiveConnection.getConnectionState());
                             //代理对象设置为不可用
                             oldestActiveConnection.invalidate();
                             if (log.isDebugEnabled()) {
@@ -472,9 +824,7 @@ public class PooledDataSource implements DataSource {
                     //如果已经拿到connection，则返回
                     //把上个连接的数据清理掉
                     if (conn.isValid()) {
-                        if (!conn.getRealConnection().getAutoCommit()) {
-                            conn.getRealConnection().rollback();
-                        }
+                        rollbackIfNeeded(conn);
                         conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
                         //记录checkout时间
                         conn.setCheckoutTimestamp(System.currentTimeMillis());
@@ -513,6 +863,377 @@ public class PooledDataSource implements DataSource {
         return conn;
     }
 
+    /**
+     * 取一个连接，池锁里只挑选连接、占住名额，新建连接、校验、回滚都在锁外面做
+     *
+     * @param username
+     * @param password
+     * @return
+     * @throws SQLException
+     */
+    private PooledConnection popConnectionOutsideLock(String username, String password) throws SQLException {
+        boolean countedWait = false;
+        long t = System.currentTimeMillis();
+        int localBadConnectionCount = 0;
+
+        while (true) {
+            PooledConnection conn = null;
+            //占住的名额：要新建连接，或者收回的超时连接
+            boolean reserved = false;
+            boolean create = false;
+            PooledConnection overdueConnection = null;
+            synchronized (state) {
+                if (!state.idleConnections.isEmpty()) {
+                    conn = state.idleConnections.remove(0);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+                    }
+                } else if (state.activeConnections.size() + state.pendingConnectionCount < poolMaximumActiveConnections) {
+                    create = true;
+                } else if (!state.activeConnections.isEmpty()
+                        && state.activeConnections.get(0).getCheckoutTime() > poolMaximumCheckoutTime) {
+                    overdueConnection = state.activeConnections.remove(0);
+                    long longestCheckoutTime = overdueConnection.getCheckoutTime();
+                    state.claimedOverdueConnectionCount++;
+                    state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
+                    state.recordCheckoutTime(longestCheckoutTime);
+                    //收回之后原来的代理马上不能用了，再去回滚
+                    overdueConnection.invalidate();
+                } else {
+                    try {
+                        if (!countedWait) {
+                            state.hadToWaitCount++;
+                            countedWait = true;
+                        }
+                        if (log.isDebugEnabled()) {
+                            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+                        }
+                        long wt = System.currentTimeMillis();
+                        state.wait(poolTimeToWait);
+                        state.accumulatedWaitTime += System.currentTimeMillis() - wt;
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    continue;
+                }
+                if (conn == null) {
+                    state.pendingConnectionCount++;
+                    reserved = true;
+                }
+            }
+
+            boolean valid;
+            try {
+                if (create) {
+                    conn = new PooledConnection(dataSource.getConnection(), this);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Created connection " + conn.getRealHashCode() + ".");
+                    }
+                } else if (overdueConnection != null) {
+                    conn = new PooledConnection(overdueConnection.getRealConnection(), this);
+                    conn.setStatementCache(overdueConnection.getStatementCache());
+                    conn.setConnectionState(overdueConnection.getConnectionState());
+                    //超时的连接肯定没有正常结束，不管有没有写过都回滚
+                    overdueConnection.setDirty(true);
+                    resetConnection(overdueConnection);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+                    }
+                }
+                valid = conn.isValid();
+            } catch (SQLException e) {
+                //新建失败把名额还回去，让等待的线程重新去抢
+                if (conn == null) {
+                    synchronized (state) {
+                        state.pendingConnectionCount--;
+                        state.notifyAll();
+                    }
+                    throw e;
+                }
+                valid = false;
+            }
+
+            synchronized (state) {
+                if (reserved) {
+                    state.pendingConnectionCount--;
+                }
+                if (valid) {
+                    conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+                    conn.setCheckoutTimestamp(System.currentTimeMillis());
+                    conn.setLastUsedTimestamp(System.currentTimeMillis());
+                    state.activeConnections.add(conn);
+                    state.requestCount++;
+                    state.accumulatedRequestTime += System.currentTimeMillis() - t;
+                    return conn;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+                }
+                state.badConnectionCount++;
+                localBadConnectionCount++;
+                //名额空出来了
+                state.notifyAll();
+            }
+            conn.invalidate();
+            //坏连接不再被池子跟踪，物理连接要关掉，否则每次坏的借出都漏掉一个数据库连接
+            closeRealConnectionQuietly(conn);
+            if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("PooledDataSource: Could not get a good connection to the database.");
+                }
+                throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+        }
+        throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+
+    /*
+     * 后台线程调用：把一段时间没用过的空闲连接拿出池子，在锁外面校验，好的再放回去
+     */
+    void validateIdleConnections() {
+        //没开侦测查询时isValid只看连接有没有关，不值得把连接拿出池子
+        if (!poolPingEnabled || poolPingConnectionsNotUsedFor <= 0) {
+            return;
+        }
+        List<PooledConnection> candidates = new ArrayList<PooledConnection>();
+        int typeCode;
+        int generation;
+        synchronized (state) {
+            //校验期间数据源的配置变了或者池被关掉了的话，这些连接就不能再放回去了
+            typeCode = expectedConnectionTypeCode;
+            generation = poolGeneration;
+            for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext(); ) {
+                PooledConnection conn = it.next();
+                if (conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
+                    it.remove();
+                    candidates.add(conn);
+                }
+            }
+            //校验期间也占着名额，免得取连接的线程趁机多建连接
+            state.pendingConnectionCount += candidates.size();
+        }
+        for (PooledConnection conn : candidates) {
+            boolean valid = conn.isValid();
+            boolean close = false;
+            synchronized (state) {
+                state.pendingConnectionCount--;
+                if (valid && typeCode == expectedConnectionTypeCode && generation == poolGeneration
+                        && state.idleConnections.size() < poolMaximumIdleConnections) {
+                    conn.setLastUsedTimestamp(System.currentTimeMillis());
+                    state.idleConnections.add(conn);
+                } else {
+                    if (!valid) {
+                        state.badConnectionCount++;
+                    }
+                    conn.invalidate();
+                    close = valid;
+                }
+                state.notifyAll();
+            }
+            if (close) {
+                try {
+                    conn.clearStatementCache();
+                    conn.getRealConnection().close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /*
+     * 后台线程调用：关掉超过存活时间的空闲连接，以及闲置太久且多于最少空闲数的连接
+     */
+    void evictIdleConnections() {
+        if (poolMaximumLifetime <= 0 && poolMaximumIdleTime <= 0) {
+            return;
+        }
+        List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+        synchronized (state) {
+            for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext(); ) {
+                PooledConnection conn = it.next();
+                boolean idleTooLong = poolMaximumIdleTime > 0 && conn.getTimeElapsedSinceLastUse() > poolMaximumIdleTime
+                        && state.idleConnections.size() > poolMinimumIdleConnections;
+                if (isExpired(conn) || idleTooLong) {
+                    it.remove();
+                    conn.invalidate();
+                    evicted.add(conn);
+                }
+            }
+        }
+        for (PooledConnection conn : evicted) {
+            try {
+                conn.clearStatementCache();
+                conn.getRealConnection().close();
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted connection " + conn.getRealHashCode() + ".");
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    /*
+     * 补足最少空闲连接，物理连接在锁外面建
+     */
+    void fillIdleConnections() {
+        while (true) {
+            int typeCode;
+            int generation;
+            synchronized (state) {
+                int total = state.activeConnections.size() + state.idleConnections.size() + state.pendingConnectionCount;
+                if (state.idleConnections.size() + state.pendingConnectionCount >= poolMinimumIdleConnections
+                        || total >= poolMaximumActiveConnections) {
+                    return;
+                }
+                typeCode = expectedConnectionTypeCode;
+                generation = poolGeneration;
+                state.pendingConnectionCount++;
+            }
+            PooledConnection conn;
+            try {
+                conn = new PooledConnection(dataSource.getConnection(), this);
+            } catch (SQLException e) {
+                synchronized (state) {
+                    state.pendingConnectionCount--;
+                    state.notifyAll();
+                }
+                log.warn("Could not create an idle connection for the pool. Cause: " + e);
+                return;
+            }
+            boolean added = false;
+            synchronized (state) {
+                state.pendingConnectionCount--;
+                if (typeCode == expectedConnectionTypeCode && generation == poolGeneration
+                        && state.idleConnections.size() < poolMaximumIdleConnections) {
+                    state.idleConnections.add(conn);
+                    added = true;
+                    if (log.isDebugEnabled()) {
+                        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+                    }
+                }
+                state.notifyAll();
+            }
+            if (!added) {
+                conn.invalidate();
+                try {
+                    conn.getRealConnection().close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+                return;
+            }
+        }
+    }
+
+    /*
+     * 后台线程调用：报告取出时间超过阈值的连接，每个连接只报告一次
+     */
+    void detectLeaks() {
+        if (poolLeakDetectionThreshold <= 0) {
+            return;
+        }
+        List<PooledConnection> leaked = new ArrayList<PooledConnection>();
+        synchronized (state) {
+            for (PooledConnection conn : state.activeConnections) {
+                if (conn.getCheckoutStack() != null && !conn.isLeakReported()
+                        && conn.getCheckoutTime() > poolLeakDetectionThreshold) {
+                    conn.setLeakReported(true);
+                    state.leakedConnectionCount++;
+                    leaked.add(conn);
+                }
+            }
+        }
+        PoolMetrics metrics = poolMetrics;
+        for (PooledConnection conn : leaked) {
+            long checkoutTime = conn.getCheckoutTime();
+            log.error("Connection " + conn.getRealHashCode() + " has been checked out for " + checkoutTime
+                    + " milliseconds, possible connection leak.", conn.getCheckoutStack());
+            if (metrics != null) {
+                metrics.recordLeak(checkoutTime, conn.getCheckoutStack());
+            }
+        }
+    }
+
+    private void registerMBean() {
+        if (poolJmxName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(state, getObjectName());
+        } catch (Exception e) {
+            log.warn("Could not register the connection pool '" + poolJmxName + "' in JMX. Cause: " + e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (poolJmxName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.warn("Could not unregister the connection pool '" + poolJmxName + "' from JMX. Cause: " + e);
+        }
+    }
+
+    private ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("org.apache.ibatis.datasource.pooled:type=PooledDataSource,name=" + ObjectName.quote(poolJmxName));
+    }
+
+    /*
+     * 超过存活时间的连接要退役，每个连接按物理连接的hash提前最多10%，
+     * 这样同一批建的连接不会在同一时刻一起重连
+     */
+    private boolean isExpired(PooledConnection conn) {
+        if (poolMaximumLifetime <= 0) {
+            return false;
+        }
+        long jitter = (conn.getRealHashCode() & 0x7fffffff) % (poolMaximumLifetime / 10 + 1);
+        return conn.getAge() > poolMaximumLifetime - jitter;
+    }
+
+    /*
+     * 后台线程的间隔：配置了就用配置的，只要有最少空闲数/存活时间/空闲时间就用默认值
+     */
+    private int getHousekeepingPeriod() {
+        if (poolHousekeepingInterval > 0) {
+            return poolHousekeepingInterval;
+        }
+        if (poolMinimumIdleConnections > 0 || poolMaximumLifetime > 0 || poolMaximumIdleTime > 0
+                || poolLeakDetectionThreshold > 0) {
+            return DEFAULT_HOUSEKEEPING_INTERVAL;
+        }
+        return 0;
+    }
+
+    private void startHousekeeper() {
+        synchronized (state) {
+            int period = getHousekeepingPeriod();
+            if (housekeeper == null && period > 0) {
+                housekeeper = new PoolHousekeeper(this, period);
+            }
+        }
+    }
+
+    private void stopHousekeeper() {
+        synchronized (state) {
+            if (housekeeper != null) {
+                housekeeper.shutdown();
+                housekeeper = null;
+            }
+        }
+    }
+
     /*
      * Method to check to see if a connection is still usable
      *
@@ -586,8 +1307,21 @@ public class PooledDataSource implements DataSource {
         return conn;
     }
 
-    protected void finalize() throws Throwable {
+    /*
+     * Stops the background thread, unregisters the pool from JMX and closes all
+     * connections. The housekeeper thread and the MBean server both hold a
+     * reference to the data source, so finalize() never runs while either is
+     * alive; applications that enable them must call close().
+     * Getting a connection after close() starts the pool again.
+     */
+    public void close() {
+        stopHousekeeper();
+        unregisterMBean();
         forceCloseAll();
+    }
+
+    protected void finalize() throws Throwable {
+        close();
         super.finalize();
     }
 
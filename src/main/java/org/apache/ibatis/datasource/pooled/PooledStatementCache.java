@@ -0,0 +1,234 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 物理连接上的PreparedStatement缓存(LRU)
+ * 跟着真实连接走，会话关闭、连接归还到池里以后还在，下次同样的sql不用再到数据库prepare一次
+ * 取出的statement被代理，close时只是放回缓存，真实连接关闭时才真正关闭
+ */
+class PooledStatementCache {
+
+    private static final Log log = LogFactory.getLog(PooledStatementCache.class);
+
+    private static final String CLOSE = "close";
+    private static final String GET_CONNECTION = "getConnection";
+    private static final Class<?>[] IFACES = new Class<?>[]{PreparedStatement.class};
+
+    private final int size;
+    //空闲的statement，按访问顺序排列，最老的先被淘汰
+    private final Map<StatementKey, PreparedStatement> idleStatements;
+
+    PooledStatementCache(final int size) {
+        this.size = size;
+        this.idleStatements = new LinkedHashMap<StatementKey, PreparedStatement>(size, .75F, true) {
+            private static final long serialVersionUID = -1382539411283936720L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+                boolean tooBig = size() > PooledStatementCache.this.size;
+                if (tooBig) {
+                    closeQuietly(eldest.getValue());
+                }
+                return tooBig;
+            }
+        };
+    }
+
+    /**
+     * 对应Connection.prepareStatement的各种重载，args就是调用的参数
+     * 缓存里有就取出来(取出期间不在缓存里，同一条sql同时打开两次时第二次会新prepare一个)
+     * proxyConnection是池化连接的代理，statement.getConnection()返回它，调用方关闭时连接才会回到池里
+     */
+    synchronized PreparedStatement prepareStatement(Connection realConnection, Connection proxyConnection, Method method, Object[] args) throws Throwable {
+        final StatementKey key = new StatementKey(args);
+        PreparedStatement statement = idleStatements.remove(key);
+        if (statement == null) {
+            try {
+                statement = (PreparedStatement) method.invoke(realConnection, args);
+            } catch (Throwable t) {
+                throw ExceptionUtil.unwrapThrowable(t);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("Reusing cached statement for: " + args[0]);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, new CachedStatement(key, statement, proxyConnection));
+    }
+
+    //放回缓存，如果已经有同样的空闲statement则直接关闭
+    private synchronized void release(StatementKey key, PreparedStatement statement) {
+        if (idleStatements.containsKey(key)) {
+            closeQuietly(statement);
+        } else {
+            idleStatements.put(key, statement);
+        }
+    }
+
+    //真实连接关闭前调用
+    synchronized void clear() {
+        for (Iterator<PreparedStatement> iterator = idleStatements.values().iterator(); iterator.hasNext(); ) {
+            closeQuietly(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    synchronized int getIdleCount() {
+        return idleStatements.size();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * sql加上其他prepareStatement参数(结果集类型，自动生成主键的列等)
+     */
+    private static class StatementKey {
+
+        private final Object[] args;
+        private final int hashCode;
+
+        private StatementKey(Object[] args) {
+            this.args = args.clone();
+            this.hashCode = Arrays.deepHashCode(this.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof StatementKey && Arrays.deepEquals(args, ((StatementKey) obj).args);
+        }
+    }
+
+    /**
+     * 借出的statement，close时清理状态后放回缓存
+     */
+    private class CachedStatement implements InvocationHandler {
+
+        private final StatementKey key;
+        private final PreparedStatement statement;
+        private final Connection proxyConnection;
+        //prepare时的默认设置，StatementHandler可能会改掉，放回时恢复
+        private final int queryTimeout;
+        private final int fetchSize;
+        private final int fetchDirection;
+        private final int maxRows;
+        private final int maxFieldSize;
+        private boolean closed;
+
+        private CachedStatement(StatementKey key, PreparedStatement statement, Connection proxyConnection) throws SQLException {
+            this.key = key;
+            this.statement = statement;
+            this.proxyConnection = proxyConnection;
+            this.queryTimeout = statement.getQueryTimeout();
+            this.fetchSize = statement.getFetchSize();
+            this.fetchDirection = statement.getFetchDirection();
+            this.maxRows = statement.getMaxRows();
+            this.maxFieldSize = statement.getMaxFieldSize();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
+                if (!closed) {
+                    closed = true;
+                    recycle();
+                }
+                return null;
+            } else if ("isClosed".equals(methodName)) {
+                return closed;
+            }
+            if (closed && !Object.class.equals(method.getDeclaringClass())) {
+                throw new SQLException("Statement is closed.");
+            }
+            if (GET_CONNECTION.equals(methodName)) {
+                //不能把真实连接暴露出去，否则调用方关闭它时物理连接被关掉
+                return proxyConnection;
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (Throwable t) {
+                throw ExceptionUtil.unwrapThrowable(t);
+            }
+        }
+
+        private void recycle() {
+            closeResultSet();
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+                if (statement.getQueryTimeout() != queryTimeout) {
+                    statement.setQueryTimeout(queryTimeout);
+                }
+                if (statement.getFetchSize() != fetchSize) {
+                    statement.setFetchSize(fetchSize);
+                }
+                if (statement.getFetchDirection() != fetchDirection) {
+                    statement.setFetchDirection(fetchDirection);
+                }
+                if (statement.getMaxRows() != maxRows) {
+                    statement.setMaxRows(maxRows);
+                }
+                if (statement.getMaxFieldSize() != maxFieldSize) {
+                    statement.setMaxFieldSize(maxFieldSize);
+                }
+                release(key, statement);
+            } catch (SQLException e) {
+                //状态恢复不了的statement不再复用
+                closeQuietly(statement);
+            }
+        }
+
+        //真正close时会关闭还开着的结果集，放回缓存前要自己关
+        private void closeResultSet() {
+            try {
+                final ResultSet rs = statement.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+}
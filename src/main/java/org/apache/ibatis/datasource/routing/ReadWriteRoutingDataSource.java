@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * 读写分离的数据源
+ * 普通的getConnection总是返回主库的连接，所以可以直接替换原来的数据源；
+ * 从库的连接通过getReplicaConnection取，配合ReadWriteTransaction使用。
+ * 选从库时按权重随机挑两个，取最近取连接延迟小的那个；从库取连接失败会暂时摘掉，
+ * 所有从库都不可用时读主库。
+ */
+public class ReadWriteRoutingDataSource implements DataSource {
+
+    private static final Log log = LogFactory.getLog(ReadWriteRoutingDataSource.class);
+
+    //主库
+    private final DataSource primary;
+    //从库
+    private final List<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+    private final Random random = new Random();
+    //从库取连接失败后，多久之后再试(毫秒)
+    protected int replicaRetryInterval = 5000;
+
+    public ReadWriteRoutingDataSource(DataSource primary) {
+        this.primary = primary;
+    }
+
+    public void addReplica(DataSource dataSource, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Replica weight must be positive but was " + weight);
+        }
+        replicas.add(new Replica(dataSource, weight));
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    public int getReplicaRetryInterval() {
+        return replicaRetryInterval;
+    }
+
+    public void setReplicaRetryInterval(int replicaRetryInterval) {
+        this.replicaRetryInterval = replicaRetryInterval;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * 取一个从库的连接，没有可用的从库时返回主库的连接
+     */
+    public Connection getReplicaConnection() throws SQLException {
+        List<Replica> failed = new ArrayList<Replica>();
+        while (true) {
+            Replica replica = chooseReplica(failed);
+            if (replica == null) {
+                return primary.getConnection();
+            }
+            long start = System.nanoTime();
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.recordLatency(System.nanoTime() - start);
+                return connection;
+            } catch (SQLException e) {
+                log.warn("Could not get a connection from replica " + replica.dataSource + ", trying another one. Cause: " + e);
+                replica.downUntil = System.currentTimeMillis() + replicaRetryInterval;
+                failed.add(replica);
+            }
+        }
+    }
+
+    //按权重随机挑两个可用的从库，取延迟小的那个
+    private Replica chooseReplica(List<Replica> excluded) {
+        long now = System.currentTimeMillis();
+        Replica first = pickWeighted(now, excluded, null);
+        if (first == null) {
+            return null;
+        }
+        Replica second = pickWeighted(now, excluded, first);
+        if (second == null) {
+            return first;
+        }
+        return second.latency < first.latency ? second : first;
+    }
+
+    private Replica pickWeighted(long now, List<Replica> excluded, Replica skip) {
+        int totalWeight = 0;
+        for (Replica replica : replicas) {
+            if (isAvailable(replica, now, excluded, skip)) {
+                totalWeight += replica.weight;
+            }
+        }
+        if (totalWeight == 0) {
+            return null;
+        }
+        int point = random.nextInt(totalWeight);
+        for (Replica replica : replicas) {
+            if (isAvailable(replica, now, excluded, skip)) {
+                point -= replica.weight;
+                if (point < 0) {
+                    return replica;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isAvailable(Replica replica, long now, List<Replica> excluded, Replica skip) {
+        return replica != skip && replica.downUntil <= now && !excluded.contains(replica);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException(getClass().getName() + " is not a wrapper.");
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+    public Logger getParentLogger() {
+        return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    }
+
+    private static class Replica {
+        private final DataSource dataSource;
+        private final int weight;
+        //取连接耗时的滑动平均(纳秒)，并发更新丢掉一两次没关系
+        private volatile long latency;
+        //暂时摘掉直到这个时间
+        private volatile long downUntil;
+
+        Replica(DataSource dataSource, int weight) {
+            this.dataSource = dataSource;
+            this.weight = weight;
+        }
+
+        void recordLatency(long nanos) {
+            long previous = latency;
+            latency = previous == 0 ? nanos : previous + (nanos - previous) / 8;
+        }
+    }
+
+}
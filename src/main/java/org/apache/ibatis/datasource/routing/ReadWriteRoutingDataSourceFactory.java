@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 读写分离数据源工厂，主库和每个从库都是一个连接池
+ * <pre>
+ * &lt;dataSource type="ROUTING"&gt;
+ *   &lt;property name="driver" value="..."/&gt;          所有库共用的属性
+ *   &lt;property name="primary.url" value="..."/&gt;     主库自己的属性
+ *   &lt;property name="replicas" value="r1,r2"/&gt;      从库的名字
+ *   &lt;property name="r1.url" value="..."/&gt;
+ *   &lt;property name="r1.weight" value="2"/&gt;         权重，默认1
+ *   &lt;property name="replicaRetryInterval" value="5000"/&gt;
+ * &lt;/dataSource&gt;
+ * </pre>
+ */
+public class ReadWriteRoutingDataSourceFactory implements DataSourceFactory {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICAS = "replicas";
+    private static final String WEIGHT = "weight";
+    private static final String REPLICA_RETRY_INTERVAL = "replicaRetryInterval";
+
+    private ReadWriteRoutingDataSource dataSource;
+
+    @Override
+    public void setProperties(Properties properties) {
+        Map<String, Properties> replicaProperties = new LinkedHashMap<String, Properties>();
+        String replicaNames = properties.getProperty(REPLICAS);
+        if (replicaNames != null) {
+            for (String name : replicaNames.split(",")) {
+                if (name.trim().length() > 0) {
+                    replicaProperties.put(name.trim(), new Properties());
+                }
+            }
+        }
+        Properties shared = new Properties();
+        Properties primaryProperties = new Properties();
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            int dot = key.indexOf('.');
+            String prefix = dot > 0 ? key.substring(0, dot) : null;
+            if (REPLICAS.equals(key) || REPLICA_RETRY_INTERVAL.equals(key)) {
+                continue;
+            } else if (PRIMARY.equals(prefix)) {
+                primaryProperties.setProperty(key.substring(dot + 1), value);
+            } else if (replicaProperties.containsKey(prefix)) {
+                String name = key.substring(dot + 1);
+                if (WEIGHT.equals(name)) {
+                    weights.put(prefix, Integer.valueOf(value));
+                } else {
+                    replicaProperties.get(prefix).setProperty(name, value);
+                }
+            } else {
+                //driver.xxx 这种驱动属性也原样共享
+                shared.setProperty(key, value);
+            }
+        }
+        dataSource = new ReadWriteRoutingDataSource(newPool(shared, primaryProperties));
+        for (Map.Entry<String, Properties> entry : replicaProperties.entrySet()) {
+            Integer weight = weights.get(entry.getKey());
+            dataSource.addReplica(newPool(shared, entry.getValue()), weight == null ? 1 : weight);
+        }
+        String retryInterval = properties.getProperty(REPLICA_RETRY_INTERVAL);
+        if (retryInterval != null) {
+            dataSource.setReplicaRetryInterval(Integer.parseInt(retryInterval));
+        }
+    }
+
+    private DataSource newPool(Properties shared, Properties own) {
+        Properties merged = new Properties();
+        merged.putAll(shared);
+        merged.putAll(own);
+        PooledDataSourceFactory factory = new PooledDataSourceFactory();
+        factory.setProperties(merged);
+        return factory.getDataSource();
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        if (dataSource == null) {
+            throw new DataSourceException("ReadWriteRoutingDataSourceFactory has not been configured.");
+        }
+        return dataSource;
+    }
+
+}
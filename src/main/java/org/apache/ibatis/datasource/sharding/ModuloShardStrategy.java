@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.sharding;
+
+/**
+ * 默认的分片策略：整数按值取模，其他类型按hashCode取模
+ */
+public class ModuloShardStrategy implements ShardStrategy {
+
+    @Override
+    public int shardFor(Object shardKey, int shardCount) {
+        long value;
+        if (shardKey instanceof Number) {
+            value = ((Number) shardKey).longValue();
+        } else {
+            value = shardKey.hashCode();
+        }
+        return (int) Math.floorMod(value, (long) shardCount);
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.sharding;
+
+/**
+ * 分片策略，根据分片键的值算出落在哪个库
+ */
+public interface ShardStrategy {
+
+    /**
+     * @param shardKey   分片键的值，不会是null
+     * @param shardCount 库的数量
+     * @return 库的下标，0 到 shardCount - 1
+     */
+    int shardFor(Object shardKey, int shardCount);
+
+}
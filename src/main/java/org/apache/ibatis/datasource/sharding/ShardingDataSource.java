@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.sharding;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 分库的数据源，里面是每个库自己的数据源
+ * 语句落在哪个库由参数里的分片键决定(通过MetaObject取shardKeyProperty属性)，
+ * 需要配合ShardingTransactionFactory使用，执行器会为每个库建自己的事务。
+ * 普通的getConnection返回第一个库的连接，只是为了读数据库元数据之类的用途。
+ */
+public class ShardingDataSource implements DataSource {
+
+    private final List<DataSource> shards;
+    //参数里的分片键属性，比如 tenantId
+    private final String shardKeyProperty;
+    private final ShardStrategy shardStrategy;
+    //没有分片键的select并行查所有库用的线程池，第一次用到时才建
+    private volatile ExecutorService fanOutExecutor;
+
+    public ShardingDataSource(List<DataSource> shards, String shardKeyProperty) {
+        this(shards, shardKeyProperty, new ModuloShardStrategy());
+    }
+
+    public ShardingDataSource(List<DataSource> shards, String shardKeyProperty, ShardStrategy shardStrategy) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("ShardingDataSource requires at least one shard");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<DataSource>(shards));
+        this.shardKeyProperty = shardKeyProperty;
+        this.shardStrategy = shardStrategy;
+    }
+
+    public List<DataSource> getShards() {
+        return shards;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public String getShardKeyProperty() {
+        return shardKeyProperty;
+    }
+
+    public ShardStrategy getShardStrategy() {
+        return shardStrategy;
+    }
+
+    /**
+     * 参数落在哪个库，参数里没有分片键时返回-1
+     */
+    public int shardOf(Object parameterObject) {
+        if (parameterObject == null) {
+            return -1;
+        }
+        return shardOf(SystemMetaObject.forObject(parameterObject));
+    }
+
+    /**
+     * 和上面一样，参数的MetaObject由调用方创建(执行器用Configuration里配置的工厂)
+     */
+    public int shardOf(MetaObject metaParameter) {
+        if (shardKeyProperty == null) {
+            return -1;
+        }
+        if (!metaParameter.hasGetter(shardKeyProperty)) {
+            return -1;
+        }
+        Object shardKey = metaParameter.getValue(shardKeyProperty);
+        if (shardKey == null) {
+            return -1;
+        }
+        return shardStrategy.shardFor(shardKey, shards.size());
+    }
+
+    public ExecutorService getFanOutExecutor() {
+        if (fanOutExecutor == null) {
+            synchronized (this) {
+                if (fanOutExecutor == null) {
+                    final AtomicInteger count = new AtomicInteger();
+                    fanOutExecutor = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ShardingDataSource-fanout-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return fanOutExecutor;
+    }
+
+    /**
+     * 停掉并行查询的线程池，各个库的数据源由它们自己关闭
+     * 之后再有需要并行的查询时会重新建线程池
+     */
+    public void close() {
+        synchronized (this) {
+            if (fanOutExecutor != null) {
+                fanOutExecutor.shutdown();
+                fanOutExecutor = null;
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return shards.get(0).getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return shards.get(0).getConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return shards.get(0).getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        for (DataSource shard : shards) {
+            shard.setLogWriter(out);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        for (DataSource shard : shards) {
+            shard.setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return shards.get(0).getLoginTimeout();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException(getClass().getName() + " is not a wrapper.");
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+    public Logger getParentLogger() {
+        return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    }
+
+}
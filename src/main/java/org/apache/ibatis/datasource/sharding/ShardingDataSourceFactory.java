@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.sharding;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.io.Resources;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 分库数据源工厂，每个库都是一个连接池
+ * <pre>
+ * &lt;dataSource type="SHARDING"&gt;
+ *   &lt;property name="driver" value="..."/&gt;             所有库共用的属性
+ *   &lt;property name="shards" value="db0,db1"/&gt;         库的名字，顺序就是分片下标
+ *   &lt;property name="db0.url" value="..."/&gt;            每个库自己的属性
+ *   &lt;property name="shardKeyProperty" value="tenantId"/&gt;
+ *   &lt;property name="shardStrategy" value="com.example.MyStrategy"/&gt;  可选
+ * &lt;/dataSource&gt;
+ * </pre>
+ */
+public class ShardingDataSourceFactory implements DataSourceFactory {
+
+    private static final String SHARDS = "shards";
+    private static final String SHARD_KEY_PROPERTY = "shardKeyProperty";
+    private static final String SHARD_STRATEGY = "shardStrategy";
+
+    private ShardingDataSource dataSource;
+
+    @Override
+    public void setProperties(Properties properties) {
+        String shardNames = properties.getProperty(SHARDS);
+        if (shardNames == null) {
+            throw new DataSourceException("Property '" + SHARDS + "' is required by ShardingDataSourceFactory.");
+        }
+        Map<String, Properties> shardProperties = new LinkedHashMap<String, Properties>();
+        for (String name : shardNames.split(",")) {
+            if (name.trim().length() > 0) {
+                shardProperties.put(name.trim(), new Properties());
+            }
+        }
+        Properties shared = new Properties();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            int dot = key.indexOf('.');
+            String prefix = dot > 0 ? key.substring(0, dot) : null;
+            if (SHARDS.equals(key) || SHARD_KEY_PROPERTY.equals(key) || SHARD_STRATEGY.equals(key)) {
+                continue;
+            } else if (shardProperties.containsKey(prefix)) {
+                shardProperties.get(prefix).setProperty(key.substring(dot + 1), value);
+            } else {
+                shared.setProperty(key, value);
+            }
+        }
+        List<DataSource> shards = new ArrayList<DataSource>();
+        for (Properties own : shardProperties.values()) {
+            Properties merged = new Properties();
+            merged.putAll(shared);
+            merged.putAll(own);
+            PooledDataSourceFactory factory = new PooledDataSourceFactory();
+            factory.setProperties(merged);
+            shards.add(factory.getDataSource());
+        }
+        dataSource = new ShardingDataSource(shards, properties.getProperty(SHARD_KEY_PROPERTY), newShardStrategy(properties.getProperty(SHARD_STRATEGY)));
+    }
+
+    private ShardStrategy newShardStrategy(String type) {
+        if (type == null) {
+            return new ModuloShardStrategy();
+        }
+        try {
+            return (ShardStrategy) Resources.classForName(type).newInstance();
+        } catch (Exception e) {
+            throw new DataSourceException("Error creating ShardStrategy '" + type + "'. Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        if (dataSource == null) {
+            throw new DataSourceException("ShardingDataSourceFactory has not been configured.");
+        }
+        return dataSource;
+    }
+
+}
@@ -17,6 +17,9 @@ package org.apache.ibatis.executor;
 
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.executor.pagination.Paginator;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
+import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
@@ -27,14 +30,19 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.RoutableTransaction;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
 
 import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
 
@@ -53,6 +61,8 @@ public abstract class BaseExecutor implements Executor {
     protected ConcurrentLinkedQueue<DeferredLoad> deferredLoads;
     //sql执行缓存
     protected PerpetualCache localCache;
+    //还没读完也没关闭的流式查询，执行器关闭时一起关闭；结果集可能在别的线程读完，用同步的集合
+    private final Set<ResultSetSpliterator<?>> openSpliterators = Collections.synchronizedSet(new HashSet<ResultSetSpliterator<?>>());
     //执行过程缓存
     protected PerpetualCache localOutputParameterCache;
     //全局配置
@@ -84,6 +94,7 @@ public abstract class BaseExecutor implements Executor {
     @Override
     public void close(boolean forceRollback) {
         try {
+            closeOpenSpliterators();
             try {
                 //关闭的时候 是否需要回滚数据
                 rollback(forceRollback);
@@ -106,6 +117,17 @@ public abstract class BaseExecutor implements Executor {
         }
     }
 
+    //关闭时会从openSpliterators里移除自己，先复制一份
+    private void closeOpenSpliterators() {
+        final ResultSetSpliterator<?>[] spliterators;
+        synchronized (openSpliterators) {
+            spliterators = openSpliterators.toArray(new ResultSetSpliterator<?>[openSpliterators.size()]);
+        }
+        for (ResultSetSpliterator<?> spliterator : spliterators) {
+            spliterator.close();
+        }
+    }
+
     @Override
     public boolean isClosed() {
         return closed;
@@ -119,7 +141,25 @@ public abstract class BaseExecutor implements Executor {
         }
         //先清局部缓存，再更新，如何更新交由子类，模板方法模式
         clearLocalCache();
-        return doUpdate(ms, parameter);
+        routeTransaction(ms);
+        StatementHealth health = ms.getHealth();
+        if (health == null) {
+            return doUpdate(ms, parameter);
+        }
+        boolean trial = health.acquirePermission(ms, configuration);
+        long start = System.currentTimeMillis();
+        Boolean failed = null;
+        try {
+            int result = doUpdate(ms, parameter);
+            //批处理里只是加进了批次，耗时没有意义
+            failed = result == BatchExecutor.BATCH_UPDATE_RETURN_VALUE ? null : Boolean.FALSE;
+            return result;
+        } catch (SQLException e) {
+            failed = Boolean.TRUE;
+            throw e;
+        } finally {
+            health.complete(ms, configuration, trial, System.currentTimeMillis() - start, failed);
+        }
     }
 
     @Override
@@ -140,6 +180,12 @@ public abstract class BaseExecutor implements Executor {
     public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
         //得到绑定sql
         BoundSql boundSql = ms.getBoundSql(parameter);
+        //物理分页：把RowBounds改写进SQL，之后就不用在结果集里跳行了
+        Paginator paginator = configuration.getPaginator();
+        if (paginator.isApplicable(this, ms, rowBounds)) {
+            boundSql = paginator.paginate(this, ms, parameter, rowBounds, boundSql);
+            rowBounds = RowBounds.DEFAULT;
+        }
         //创建缓存Key
         CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
         //查询
@@ -166,7 +212,8 @@ public abstract class BaseExecutor implements Executor {
             //加一,这样递归调用到上面的时候就不会再清局部缓存了
             queryStack++;
             //如果结果处理器为null ,先从缓存里面拿
-            list = resultHandler == null ? (List<E>) localCache.getObject(key) : null;
+            //流式读取不走本地缓存
+            list = resultHandler == null && !ms.isStreaming() ? (List<E>) localCache.getObject(key) : null;
             if (list != null) {
                 //若查到localCache缓存，处理localOutputParameterCache
                 handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
@@ -194,6 +241,45 @@ public abstract class BaseExecutor implements Executor {
         return list;
     }
 
+    /**
+     * Stream查询：不走本地缓存，结果集在Stream关闭或者读完时关闭
+     */
+    @Override
+    public <E> Stream<E> queryStream(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+        ErrorContext.instance().resource(ms.getResource()).activity("executing a query").object(ms.getId());
+        if (closed) {
+            throw new ExecutorException("Executor was closed.");
+        }
+        if (queryStack == 0 && ms.isFlushCacheRequired()) {
+            clearLocalCache();
+        }
+        BoundSql boundSql = ms.getBoundSql(parameter);
+        Paginator paginator = configuration.getPaginator();
+        if (paginator.isApplicable(this, ms, rowBounds)) {
+            boundSql = paginator.paginate(this, ms, parameter, rowBounds, boundSql);
+            rowBounds = RowBounds.DEFAULT;
+        }
+        routeTransaction(ms);
+        StatementHealth health = ms.getHealth();
+        if (health == null) {
+            return this.<E>doQueryStream(ms, parameter, rowBounds, boundSql).stream();
+        }
+        //只统计执行到拿到结果集的耗时，读取的快慢取决于调用方
+        boolean trial = health.acquirePermission(ms, configuration);
+        long start = System.currentTimeMillis();
+        Boolean failed = null;
+        try {
+            ResultSetSpliterator<E> spliterator = doQueryStream(ms, parameter, rowBounds, boundSql);
+            failed = Boolean.FALSE;
+            return spliterator.stream();
+        } catch (SQLException e) {
+            failed = Boolean.TRUE;
+            throw e;
+        } finally {
+            health.complete(ms, configuration, trial, System.currentTimeMillis() - start, failed);
+        }
+    }
+
     //延迟加载，DefaultResultSetHandler.getNestedQueryMappingValue调用.属于嵌套查询，比较高级.
     @Override
     public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
@@ -301,6 +387,36 @@ public abstract class BaseExecutor implements Executor {
     protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
             throws SQLException;
 
+    protected abstract <E> ResultSetSpliterator<E> doQueryStream(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+            throws SQLException;
+
+    //流式查询用一个专用的Statement，结果集关闭时一起关闭，不放进ReuseExecutor的缓存，也不参与批处理
+    protected <E> ResultSetSpliterator<E> queryStreamOnNewStatement(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+            throws SQLException {
+        StatementHandler handler = ms.getConfiguration().newStatementHandler(wrapper, ms, parameter, rowBounds, NO_RESULT_HANDLER, boundSql);
+        final Statement stmt = handler.prepare(getConnection(ms.getStatementLog()));
+        try {
+            handler.parameterize(stmt);
+            final ResultSetSpliterator<E> spliterator = handler.<E>queryStream(stmt);
+            //读完、出错或者Stream关闭时结果集会自己关闭，这时关闭Statement并不再记着它
+            openSpliterators.add(spliterator);
+            spliterator.onClose(new Runnable() {
+                @Override
+                public void run() {
+                    closeStatement(stmt);
+                    openSpliterators.remove(spliterator);
+                }
+            });
+            return spliterator;
+        } catch (SQLException e) {
+            closeStatement(stmt);
+            throw e;
+        } catch (RuntimeException e) {
+            closeStatement(stmt);
+            throw e;
+        }
+    }
+
     protected void closeStatement(Statement statement) {
         if (statement != null) {
             try {
@@ -335,17 +451,25 @@ public abstract class BaseExecutor implements Executor {
 
     //从数据库查
     private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
+        routeTransaction(ms);
+        //流式读取的结果不放进本地缓存，否则大结果集又全部留在内存里了
+        if (ms.isStreaming()) {
+            return doGuardedQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+        }
         List<E> list;
         //先向缓存中放入占位符，是为了在此期间查出脏数据吗？
         localCache.putObject(key, EXECUTION_PLACEHOLDER);
         try {
-            list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+            list = doGuardedQuery(ms, parameter, rowBounds, resultHandler, boundSql);
         } finally {
             //最后删除占位符
             localCache.removeObject(key);
         }
-        //把查询的结果加入缓存
-        localCache.putObject(key, list);
+        //把查询的结果加入缓存，带ResultHandler的查询结果都交给了handler，返回的是空列表，不能缓存，
+        //否则同一个会话里后面相同的selectList/selectOne会拿到空结果
+        if (resultHandler == null) {
+            localCache.putObject(key, list);
+        }
         //如果是存储过程，把参数也加入缓存
         if (ms.getStatementType() == StatementType.CALLABLE) {
             localOutputParameterCache.putObject(key, parameter);
@@ -353,6 +477,34 @@ public abstract class BaseExecutor implements Executor {
         return list;
     }
 
+    //开启了自适应超时或者熔断的语句，执行前先问熔断器，执行后记下耗时和结果
+    private <E> List<E> doGuardedQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
+        StatementHealth health = ms.getHealth();
+        if (health == null) {
+            return doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+        }
+        boolean trial = health.acquirePermission(ms, configuration);
+        long start = System.currentTimeMillis();
+        Boolean failed = null;
+        try {
+            List<E> list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+            failed = Boolean.FALSE;
+            return list;
+        } catch (SQLException e) {
+            failed = Boolean.TRUE;
+            throw e;
+        } finally {
+            health.complete(ms, configuration, trial, System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    //事务可以按语句选连接的话(比如读写分离)，先告诉它接下来要执行哪条语句
+    private void routeTransaction(MappedStatement ms) {
+        if (transaction instanceof RoutableTransaction) {
+            ((RoutableTransaction) transaction).route(ms);
+        }
+    }
+
     protected Connection getConnection(Log statementLog) throws SQLException {
         Connection connection = transaction.getConnection();
         if (statementLog.isDebugEnabled()) {
@@ -18,6 +18,7 @@ package org.apache.ibatis.executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -101,6 +102,13 @@ public class BatchExecutor extends BaseExecutor {
     }
   }
 
+  //先执行攒着的批处理，流式读取用单独的Statement
+  @Override
+  protected <E> ResultSetSpliterator<E> doQueryStream(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    return queryStreamOnNewStatement(ms, parameterObject, rowBounds, boundSql);
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
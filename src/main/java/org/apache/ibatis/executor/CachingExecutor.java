@@ -18,6 +18,7 @@ package org.apache.ibatis.executor;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.executor.pagination.Paginator;
 import org.apache.ibatis.mapping.*;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.ResultHandler;
@@ -25,7 +26,9 @@ import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * 如果开启了 二级缓存执行器
@@ -34,6 +37,8 @@ public class CachingExecutor implements Executor {
     //真正的执行器
     private Executor delegate;
     private TransactionalCacheManager tcm = new TransactionalCacheManager();
+    //本事务里做过更新，还没提交或回滚，这时查询结果可能和别的会话不同，不能合并
+    private boolean dirty;
 
     public CachingExecutor(Executor delegate) {
         this.delegate = delegate;
@@ -68,17 +73,33 @@ public class CachingExecutor implements Executor {
     public int update(MappedStatement ms, Object parameterObject) throws SQLException {
         //刷新缓存完再update
         flushCacheIfRequired(ms);
+        dirty = true;
         return delegate.update(ms, parameterObject);
     }
 
     @Override
     public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
         BoundSql boundSql = ms.getBoundSql(parameterObject);
+        //物理分页，和BaseExecutor.query一样
+        Paginator paginator = ms.getConfiguration().getPaginator();
+        if (paginator.isApplicable(this, ms, rowBounds)) {
+            boundSql = paginator.paginate(this, ms, parameterObject, rowBounds, boundSql);
+            rowBounds = RowBounds.DEFAULT;
+        }
         //query时传入一个cachekey参数
         CacheKey key = createCacheKey(ms, parameterObject, rowBounds, boundSql);
         return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
     }
 
+    //Stream的结果是边读边给的，不进二级缓存
+    @Override
+    public <E> Stream<E> queryStream(MappedStatement ms, Object parameterObject, RowBounds rowBounds) throws SQLException {
+        if (ms.getCache() != null) {
+            flushCacheIfRequired(ms);
+        }
+        return delegate.<E>queryStream(ms, parameterObject, rowBounds);
+    }
+
     //被ResultLoader.selectList调用
     @Override
     public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql)
@@ -90,13 +111,13 @@ public class CachingExecutor implements Executor {
         if (cache != null) {
             //看mapper.xml是否配置了要清空缓存的配置
             flushCacheIfRequired(ms);
-            if (ms.isUseCache() && resultHandler == null) {
+            if (ms.isUseCache() && resultHandler == null && !ms.isStreaming()) {
                 ensureNoOutParams(ms, parameterObject, boundSql);
                 @SuppressWarnings("unchecked")
                 List<E> list = (List<E>) tcm.getObject(cache, key);
                 if (list == null) {
                     //如果不存在缓存，在去执行
-                    list = delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+                    list = delegateQuery(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
                    //把查询的结果在放入进缓存中
                     tcm.putObject(cache, key, list); // issue #578 and #116
                 }
@@ -105,7 +126,53 @@ public class CachingExecutor implements Executor {
             }
         }
         //如果没有在xml中配置开启缓存，就不用缓存，在委托给具体的执行器去查询
-        return delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+        return delegateQuery(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+    }
+
+    //委托给实际的执行器去查，开启了coalesce的语句和别的会话同时进行的相同查询合并成一次
+    private <E> List<E> delegateQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql)
+            throws SQLException {
+        if (!isCoalescable(ms, resultHandler)) {
+            return delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+        }
+        QueryCoalescer.InFlightQuery inFlight = ms.getConfiguration().getQueryCoalescer().join(key);
+        if (inFlight == null) {
+            return delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+        }
+        if (inFlight.isLeader()) {
+            boolean completed = false;
+            try {
+                List<E> list = delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+                //交出去的是快照，leader之后改自己的列表不影响别人
+                inFlight.complete(new ArrayList<E>(list));
+                completed = true;
+                return list;
+            } finally {
+                if (!completed) {
+                    inFlight.fail();
+                }
+            }
+        }
+        @SuppressWarnings("unchecked")
+        List<E> shared = (List<E>) inFlight.await();
+        if (shared == null) {
+            //leader失败了，可能是它自己事务的问题，自己再查一次
+            return delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+        }
+        //每个会话拿自己的列表，列表里的对象是共享的，所以只能给结果当只读用的查询开启
+        return new ArrayList<E>(shared);
+    }
+
+    private boolean isCoalescable(MappedStatement ms, ResultHandler resultHandler) {
+        return ms.isCoalesce()
+                && !dirty
+                && resultHandler == null
+                && !ms.isStreaming()
+                && ms.getSqlCommandType() == SqlCommandType.SELECT
+                //存储过程的OUT参数会写回参数对象，没法共享
+                && ms.getStatementType() != StatementType.CALLABLE
+                //嵌套查询(包括延迟加载的代理)绑定在leader的会话上，共享出去就会在别的会话里用leader的执行器
+                && !ms.hasNestedQueries();
     }
 
     @Override
@@ -117,6 +184,7 @@ public class CachingExecutor implements Executor {
     public void commit(boolean required) throws SQLException {
         delegate.commit(required);
         tcm.commit();
+        dirty = false;
     }
 
     @Override
@@ -127,6 +195,7 @@ public class CachingExecutor implements Executor {
             if (required) {
                 tcm.rollback();
             }
+            dirty = false;
         }
     }
 
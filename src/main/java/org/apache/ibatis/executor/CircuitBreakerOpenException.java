@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+/**
+ * 语句的熔断器打开时，直接拒绝执行
+ */
+public class CircuitBreakerOpenException extends ExecutorException {
+
+    private static final long serialVersionUID = -3518407295372734162L;
+
+    public CircuitBreakerOpenException() {
+        super();
+    }
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+
+    public CircuitBreakerOpenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CircuitBreakerOpenException(Throwable cause) {
+        super(cause);
+    }
+
+}
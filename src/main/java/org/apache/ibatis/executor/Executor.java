@@ -25,6 +25,7 @@ import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * 执行器,定义执行的方法
@@ -48,6 +49,14 @@ public interface Executor {
      */
     <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException;
 
+    /**
+     * 查询操作，结果以Stream的方式逐行读取，用完要关闭Stream
+     * 自己实现的执行器默认不支持
+     */
+    default <E> Stream<E> queryStream(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+        throw new ExecutorException("Executor " + getClass().getName() + " does not support streaming queries.");
+    }
+
     /**
      * 批量刷新操作
      */
@@ -0,0 +1,240 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 流水线执行器
+ * 增删改先按顺序排队，直到提交、下一次查询或者flushStatements时才发给数据库，
+ * 调用方不用等每条语句的结果。和BatchExecutor一样，连续相同的预处理语句合成一个批；
+ * 另外连续的非预处理语句(statementType="STATEMENT")即使SQL不同也放进同一个Statement的批里，
+ * 一次往返发出去。驱动不支持批量更新时退化成立即执行。
+ * 每条语句的影响行数通过flushStatements返回的BatchResult拿到，失败时抛BatchExecutorException，
+ * 里面有已经成功的BatchResult。
+ */
+public class PipelineExecutor extends BaseExecutor {
+
+  //排队的语句段，按顺序执行
+  private final List<Segment> segments = new ArrayList<Segment>();
+  //驱动是否支持批量更新，第一次用到时才问
+  private Boolean batchSupported;
+
+  public PipelineExecutor(Configuration configuration, Transaction transaction) {
+    super(configuration, transaction);
+  }
+
+  @Override
+  public int doUpdate(MappedStatement ms, Object parameterObject) throws SQLException {
+    final Configuration configuration = ms.getConfiguration();
+    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
+    final BoundSql boundSql = handler.getBoundSql();
+    final String sql = boundSql.getSql();
+    Connection connection = getConnection(ms.getStatementLog());
+    //存储过程有OUT参数，驱动不支持批量的，都只能马上执行
+    if (ms.getStatementType() == StatementType.CALLABLE || !isBatchSupported(connection)) {
+      flushStatements();
+      Statement stmt = null;
+      try {
+        stmt = handler.prepare(connection);
+        handler.parameterize(stmt);
+        return handler.update(stmt);
+      } finally {
+        closeStatement(stmt);
+      }
+    }
+    Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    Segment segment;
+    if (last != null && last.accepts(ms, sql)) {
+      segment = last;
+    } else {
+      segment = new Segment(handler.prepare(connection), ms, sql);
+      segments.add(segment);
+    }
+    segment.add(ms, sql, parameterObject);
+    handler.parameterize(segment.statement);
+    handler.batch(segment.statement);
+    return BatchExecutor.BATCH_UPDATE_RETURN_VALUE;
+  }
+
+  @Override
+  public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
+      throws SQLException {
+    Statement stmt = null;
+    try {
+      //读之前先把排队的写发出去，保证读到自己写的
+      flushStatements();
+      Configuration configuration = ms.getConfiguration();
+      StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameterObject, rowBounds, resultHandler, boundSql);
+      Connection connection = getConnection(ms.getStatementLog());
+      stmt = handler.prepare(connection);
+      handler.parameterize(stmt);
+      return handler.<E>query(stmt, resultHandler);
+    } finally {
+      closeStatement(stmt);
+    }
+  }
+
+  //先把流水线里的语句执行完，流式读取用单独的Statement
+  @Override
+  protected <E> ResultSetSpliterator<E> doQueryStream(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    return queryStreamOnNewStatement(ms, parameterObject, rowBounds, boundSql);
+  }
+
+  @Override
+  public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+    try {
+      List<BatchResult> results = new ArrayList<BatchResult>();
+      if (isRollback) {
+        return Collections.emptyList();
+      }
+      for (int i = 0, n = segments.size(); i < n; i++) {
+        Segment segment = segments.get(i);
+        try {
+          segment.execute(this);
+        } catch (BatchUpdateException e) {
+          BatchResult failed = segment.failedResult(e);
+          StringBuilder message = new StringBuilder();
+          message.append(failed.getMappedStatement().getId())
+              .append(" (pipeline segment #")
+              .append(i + 1)
+              .append(")")
+              .append(" failed.");
+          if (!results.isEmpty()) {
+            message.append(" ")
+                .append(results.size())
+                .append(" prior statement(s) completed successfully, but will be rolled back.");
+          }
+          throw new BatchExecutorException(message.toString(), e, results, failed);
+        }
+        results.addAll(segment.results);
+      }
+      return results;
+    } finally {
+      for (Segment segment : segments) {
+        closeStatement(segment.statement);
+      }
+      segments.clear();
+    }
+  }
+
+  private boolean isBatchSupported(Connection connection) throws SQLException {
+    if (batchSupported == null) {
+      batchSupported = connection.getMetaData().supportsBatchUpdates();
+    }
+    return batchSupported;
+  }
+
+  /**
+   * 一段连续的、可以放进同一个JDBC批里的语句
+   * 预处理语句：SQL和MappedStatement都相同；非预处理语句：SQL可以不同，但不能有主键生成
+   */
+  private static class Segment {
+
+    private final Statement statement;
+    private final boolean mixed;
+    private final MappedStatement mappedStatement;
+    private final String sql;
+    //预处理语句段只有一个BatchResult；混合段每条语句一个，各自拿自己的影响行数
+    private final List<BatchResult> results = new ArrayList<BatchResult>();
+
+    Segment(Statement statement, MappedStatement ms, String sql) {
+      this.statement = statement;
+      this.mixed = ms.getStatementType() == StatementType.STATEMENT && NoKeyGenerator.class.equals(ms.getKeyGenerator().getClass());
+      this.mappedStatement = ms;
+      this.sql = sql;
+    }
+
+    boolean accepts(MappedStatement ms, String sql) {
+      if (mixed) {
+        return ms.getStatementType() == StatementType.STATEMENT && NoKeyGenerator.class.equals(ms.getKeyGenerator().getClass());
+      }
+      return sql.equals(this.sql) && ms.equals(mappedStatement);
+    }
+
+    void add(MappedStatement ms, String sql, Object parameterObject) {
+      if (mixed || results.isEmpty()) {
+        results.add(new BatchResult(ms, sql, parameterObject));
+      } else {
+        results.get(0).addParameterObject(parameterObject);
+      }
+    }
+
+    /**
+     * 出错的那条语句：混合段按驱动报告的影响行数找，出错就停下的驱动返回的个数就是出错语句的位置，
+     * 出错后继续执行的驱动在出错的位置上是EXECUTE_FAILED
+     */
+    BatchResult failedResult(BatchUpdateException e) {
+      if (!mixed) {
+        return results.get(0);
+      }
+      int[] updateCounts = e.getUpdateCounts();
+      int index = updateCounts == null ? 0 : updateCounts.length;
+      if (updateCounts != null) {
+        for (int i = 0; i < updateCounts.length; i++) {
+          if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+            index = i;
+            break;
+          }
+        }
+      }
+      return results.get(Math.min(index, results.size() - 1));
+    }
+
+    void execute(PipelineExecutor executor) throws SQLException {
+      int[] updateCounts = statement.executeBatch();
+      if (mixed) {
+        for (int i = 0; i < results.size(); i++) {
+          results.get(i).setUpdateCounts(new int[]{i < updateCounts.length ? updateCounts[i] : Statement.SUCCESS_NO_INFO});
+        }
+        return;
+      }
+      BatchResult batchResult = results.get(0);
+      batchResult.setUpdateCounts(updateCounts);
+      MappedStatement ms = batchResult.getMappedStatement();
+      List<Object> parameterObjects = batchResult.getParameterObjects();
+      KeyGenerator keyGenerator = ms.getKeyGenerator();
+      if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+        ((Jdbc3KeyGenerator) keyGenerator).processBatch(ms, statement, parameterObjects);
+      } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) {
+        for (Object parameter : parameterObjects) {
+          keyGenerator.processAfter(executor, ms, statement, parameter);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import org.apache.ibatis.cache.CacheKey;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 合并同时进行的相同查询
+ * 同一个CacheKey同一时刻只有一个会话真正去查数据库(leader)，其他会话等它查完拿结果的副本。
+ * 由Configuration持有，所有会话共用。
+ */
+public class QueryCoalescer {
+
+    private final ConcurrentMap<CacheKey, InFlightQuery> inFlightQueries = new ConcurrentHashMap<CacheKey, InFlightQuery>();
+
+    /**
+     * 加入一个查询，返回的InFlightQuery.isLeader()为true时调用方负责去查，
+     * 查完必须调用complete或者fail
+     */
+    public InFlightQuery join(CacheKey key) {
+        InFlightQuery query = new InFlightQuery(key);
+        InFlightQuery existing = inFlightQueries.putIfAbsent(key, query);
+        if (existing == null) {
+            query.leader = true;
+            return query;
+        }
+        //同一个线程里嵌套查询又遇到自己，等下去就死锁了，自己查
+        if (existing.leaderThread == Thread.currentThread()) {
+            return null;
+        }
+        return existing;
+    }
+
+    public int getInFlightCount() {
+        return inFlightQueries.size();
+    }
+
+    public class InFlightQuery {
+
+        private final CacheKey key;
+        private final Thread leaderThread = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean leader;
+        private volatile Object result;
+
+        private InFlightQuery(CacheKey key) {
+            this.key = key;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        public void complete(Object result) {
+            this.result = result;
+            finish();
+        }
+
+        public void fail() {
+            finish();
+        }
+
+        /**
+         * 等leader查完，leader失败了(或者等待被中断)返回null，调用方应该自己再查一次
+         */
+        public Object await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return result;
+        }
+
+        private void finish() {
+            inFlightQueries.remove(key, this);
+            done.countDown();
+        }
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.executor;
 
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
@@ -29,6 +30,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,7 +44,8 @@ import java.util.Map;
 public class ReuseExecutor extends BaseExecutor {
 
   //可重用的执行器内部用了一个map，用来缓存SQL语句对应的Statement
-  private final Map<String, Statement> statementMap = new HashMap<String, Statement>();
+  //按连接分开缓存，读写分离时同一条sql在主库和从库上各有各的Statement，写过之后切到主库不会再用从库上的
+  private final Map<Connection, Map<String, Statement>> statementMap = new IdentityHashMap<Connection, Map<String, Statement>>();
 
   public ReuseExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
@@ -67,10 +70,18 @@ public class ReuseExecutor extends BaseExecutor {
     return handler.<E>query(stmt, resultHandler);
   }
 
+  //流式读取期间Statement一直被占着，不能复用缓存里的，单独prepare一个
+  @Override
+  protected <E> ResultSetSpliterator<E> doQueryStream(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    return queryStreamOnNewStatement(ms, parameter, rowBounds, boundSql);
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
-    for (Statement stmt : statementMap.values()) {
-      closeStatement(stmt);
+    for (Map<String, Statement> statements : statementMap.values()) {
+      for (Statement stmt : statements.values()) {
+        closeStatement(stmt);
+      }
     }
     statementMap.clear();
     return Collections.emptyList();
@@ -81,33 +92,40 @@ public class ReuseExecutor extends BaseExecutor {
     //得到绑定的SQL语句
     BoundSql boundSql = handler.getBoundSql();
     String sql = boundSql.getSql();
+    //事务当前的连接，已经按语句路由过了
+    Connection connection = transaction.getConnection();
     //如果缓存中已经有了，直接得到Statement
-    if (hasStatementFor(sql)) {
-      stmt = getStatement(sql);
+    if (hasStatementFor(connection, sql)) {
+      stmt = getStatement(connection, sql);
     } else {
       //如果缓存没有找到，则和SimpleExecutor处理完全一样，然后加入缓存
-      Connection connection = getConnection(statementLog);
-      stmt = handler.prepare(connection);
-      putStatement(sql, stmt);
+      stmt = handler.prepare(getConnection(statementLog));
+      putStatement(connection, sql, stmt);
     }
     handler.parameterize(stmt);
     return stmt;
   }
 
-  private boolean hasStatementFor(String sql) {
+  private boolean hasStatementFor(Connection connection, String sql) {
     try {
-      return statementMap.keySet().contains(sql) && !statementMap.get(sql).getConnection().isClosed();
+      Map<String, Statement> statements = statementMap.get(connection);
+      return statements != null && statements.containsKey(sql) && !statements.get(sql).getConnection().isClosed();
     } catch (SQLException e) {
       return false;
     }
   }
 
-  private Statement getStatement(String s) {
-    return statementMap.get(s);
+  private Statement getStatement(Connection connection, String s) {
+    return statementMap.get(connection).get(s);
   }
 
-  private void putStatement(String sql, Statement stmt) {
-    statementMap.put(sql, stmt);
+  private void putStatement(Connection connection, String sql, Statement stmt) {
+    Map<String, Statement> statements = statementMap.get(connection);
+    if (statements == null) {
+      statements = new HashMap<String, Statement>();
+      statementMap.put(connection, statements);
+    }
+    statements.put(sql, stmt);
   }
 
 }
@@ -0,0 +1,387 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.datasource.sharding.ShardingDataSource;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.sharding.ShardedTransaction;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 分库执行器
+ * 每个库一个普通执行器(各自的事务、本地缓存)。参数里有分片键的语句交给对应库的执行器；
+ * 没有分片键的select并行查所有库，合并结果，按语句的shardOrderBy排序后再做RowBounds分页。
+ * 没有分片键的增删改会报错，避免误写所有库。
+ */
+public class ShardingExecutor implements Executor {
+
+    private final Configuration configuration;
+    private final ShardedTransaction transaction;
+    private final ShardingDataSource dataSource;
+    //每个库的执行器
+    private final List<Executor> shardExecutors = new ArrayList<Executor>();
+    private boolean closed;
+
+    public ShardingExecutor(Configuration configuration, ShardedTransaction transaction, ExecutorType executorType) {
+        this.configuration = configuration;
+        this.transaction = transaction;
+        this.dataSource = transaction.getDataSource();
+        for (int i = 0; i < transaction.getShardCount(); i++) {
+            Transaction shardTransaction = transaction.getShardTransaction(i);
+            if (ExecutorType.BATCH == executorType) {
+                shardExecutors.add(new BatchExecutor(configuration, shardTransaction));
+            } else if (ExecutorType.PIPELINE == executorType) {
+                shardExecutors.add(new PipelineExecutor(configuration, shardTransaction));
+            } else if (ExecutorType.REUSE == executorType) {
+                shardExecutors.add(new ReuseExecutor(configuration, shardTransaction));
+            } else {
+                shardExecutors.add(new SimpleExecutor(configuration, shardTransaction));
+            }
+        }
+    }
+
+    @Override
+    public int update(MappedStatement ms, Object parameter) throws SQLException {
+        int shard = shardOf(parameter);
+        if (shard < 0) {
+            throw new ExecutorException("Statement '" + ms.getId() + "' has no value for shard key '"
+                    + dataSource.getShardKeyProperty() + "'. Updates must target exactly one shard.");
+        }
+        return shardExecutors.get(shard).update(ms, parameter);
+    }
+
+    @Override
+    public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
+        BoundSql boundSql = ms.getBoundSql(parameter);
+        CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
+        return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
+    }
+
+    @Override
+    public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
+        int shard = shardOf(parameter);
+        if (shard >= 0) {
+            return shardExecutors.get(shard).query(ms, parameter, rowBounds, resultHandler, key, boundSql);
+        }
+        if (ms.getSqlCommandType() != SqlCommandType.SELECT) {
+            throw new ExecutorException("Statement '" + ms.getId() + "' has no value for shard key '"
+                    + dataSource.getShardKeyProperty() + "'. Only selects can be sent to all shards.");
+        }
+        return queryAllShards(ms, parameter, rowBounds, resultHandler);
+    }
+
+    /**
+     * 单库直接交给该库的执行器；查所有库时一个库读完再打开下一个库，同一时刻只占一个库的结果集
+     * 配了shardOrderBy的要全部取回来排序，没法边读边给
+     */
+    @Override
+    public <E> Stream<E> queryStream(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+        int shard = shardOf(parameter);
+        if (shard >= 0) {
+            return shardExecutors.get(shard).queryStream(ms, parameter, rowBounds);
+        }
+        if (ms.getSqlCommandType() != SqlCommandType.SELECT) {
+            throw new ExecutorException("Statement '" + ms.getId() + "' has no value for shard key '"
+                    + dataSource.getShardKeyProperty() + "'. Only selects can be sent to all shards.");
+        }
+        if (ms.getShardOrderBy() != null) {
+            return this.<E>queryAllShards(ms, parameter, rowBounds, Executor.NO_RESULT_HANDLER).stream();
+        }
+        final RowBounds shardRowBounds = rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT
+                ? RowBounds.DEFAULT
+                : new RowBounds(RowBounds.NO_ROW_OFFSET, (int) Math.min(Integer.MAX_VALUE, (long) rowBounds.getOffset() + rowBounds.getLimit()));
+        final ShardStreamSpliterator<E> spliterator = new ShardStreamSpliterator<E>(ms, parameter, shardRowBounds);
+        Stream<E> stream = StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                spliterator.close();
+            }
+        });
+        if (rowBounds.getOffset() > RowBounds.NO_ROW_OFFSET) {
+            stream = stream.skip(rowBounds.getOffset());
+        }
+        if (rowBounds.getLimit() < RowBounds.NO_ROW_LIMIT) {
+            stream = stream.limit(rowBounds.getLimit());
+        }
+        return stream;
+    }
+
+    //参数的MetaObject用Configuration里配置的对象工厂和包装工厂创建
+    private int shardOf(Object parameter) {
+        if (parameter == null) {
+            return -1;
+        }
+        return dataSource.shardOf(configuration.newMetaObject(parameter));
+    }
+
+    /**
+     * 并行查所有库再合并
+     * 合并之后才分页，所以每个库最多只需要取 offset + limit 行
+     */
+    @SuppressWarnings("unchecked")
+    private <E> List<E> queryAllShards(final MappedStatement ms, final Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
+        final RowBounds shardRowBounds = rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT
+                ? RowBounds.DEFAULT
+                : new RowBounds(RowBounds.NO_ROW_OFFSET, (int) Math.min(Integer.MAX_VALUE, (long) rowBounds.getOffset() + rowBounds.getLimit()));
+        List<Future<List<Object>>> futures = new ArrayList<Future<List<Object>>>();
+        //第一个库在当前线程查，其他的交给线程池；每个库的执行器同一时刻只有一个线程在用
+        for (int i = 1; i < shardExecutors.size(); i++) {
+            final Executor executor = shardExecutors.get(i);
+            futures.add(dataSource.getFanOutExecutor().submit(new Callable<List<Object>>() {
+                @Override
+                public List<Object> call() throws Exception {
+                    return executor.query(ms, parameter, shardRowBounds, Executor.NO_RESULT_HANDLER);
+                }
+            }));
+        }
+        List<Object> merged = new ArrayList<Object>();
+        SQLException failure = null;
+        try {
+            merged.addAll(shardExecutors.get(0).<Object>query(ms, parameter, shardRowBounds, Executor.NO_RESULT_HANDLER));
+        } catch (SQLException e) {
+            failure = e;
+        }
+        //即使有库失败了，也要等其他库查完，否则执行器还在别的线程上用着
+        for (Future<List<Object>> future : futures) {
+            try {
+                merged.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExecutorException("Interrupted while querying all shards for '" + ms.getId() + "'.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = ExceptionUtil.unwrapThrowable(e.getCause());
+                if (failure == null) {
+                    if (cause instanceof SQLException) {
+                        failure = (SQLException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw new ExecutorException("Error querying all shards for '" + ms.getId() + "'. Cause: " + cause, cause);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (ms.getShardOrderBy() != null) {
+            Collections.sort(merged, new ShardResultComparator(ms.getShardOrderBy()));
+        }
+        int from = Math.min(rowBounds.getOffset(), merged.size());
+        int to = (int) Math.min(merged.size(), (long) from + rowBounds.getLimit());
+        List<Object> page = merged.subList(from, to);
+        if (resultHandler == null) {
+            return (List<E>) new ArrayList<Object>(page);
+        }
+        DefaultResultContext resultContext = new DefaultResultContext();
+        for (Object row : page) {
+            resultContext.nextResultObject(row);
+            resultHandler.handleResult(resultContext);
+            if (resultContext.isStopped()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<BatchResult> flushStatements() throws SQLException {
+        List<BatchResult> results = new ArrayList<BatchResult>();
+        for (Executor executor : shardExecutors) {
+            results.addAll(executor.flushStatements());
+        }
+        return results;
+    }
+
+    @Override
+    public void commit(boolean required) throws SQLException {
+        for (Executor executor : shardExecutors) {
+            executor.commit(required);
+        }
+    }
+
+    @Override
+    public void rollback(boolean required) throws SQLException {
+        for (Executor executor : shardExecutors) {
+            executor.rollback(required);
+        }
+    }
+
+    @Override
+    public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) {
+        return shardExecutors.get(0).createCacheKey(ms, parameterObject, rowBounds, boundSql);
+    }
+
+    @Override
+    public boolean isCached(MappedStatement ms, CacheKey key) {
+        return false;
+    }
+
+    @Override
+    public void clearLocalCache() {
+        for (Executor executor : shardExecutors) {
+            executor.clearLocalCache();
+        }
+    }
+
+    /**
+     * 嵌套查询是在每个库自己的执行器里做的，不会走到这里
+     */
+    @Override
+    public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
+        throw new ExecutorException("ShardingExecutor does not support deferred loading.");
+    }
+
+    @Override
+    public Transaction getTransaction() {
+        if (closed) {
+            throw new ExecutorException("Executor was closed.");
+        }
+        return transaction;
+    }
+
+    @Override
+    public void close(boolean forceRollback) {
+        for (Executor executor : shardExecutors) {
+            executor.close(forceRollback);
+        }
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    //嵌套查询留在各自的库里，所以不把包装传给每个库的执行器
+    @Override
+    public void setExecutorWrapper(Executor executor) {
+    }
+
+    //按库的顺序依次读每个库的Stream
+    private class ShardStreamSpliterator<E> extends Spliterators.AbstractSpliterator<E> {
+
+        private final MappedStatement ms;
+        private final Object parameter;
+        private final RowBounds rowBounds;
+        private int nextShard;
+        private Stream<E> current;
+        private Iterator<E> iterator;
+
+        ShardStreamSpliterator(MappedStatement ms, Object parameter, RowBounds rowBounds) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.ms = ms;
+            this.parameter = parameter;
+            this.rowBounds = rowBounds;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            while (iterator == null || !iterator.hasNext()) {
+                close();
+                if (nextShard >= shardExecutors.size()) {
+                    return false;
+                }
+                try {
+                    current = shardExecutors.get(nextShard++).queryStream(ms, parameter, rowBounds);
+                } catch (SQLException e) {
+                    throw ExceptionFactory.wrapException("Error querying shard " + (nextShard - 1) + " for '" + ms.getId() + "'.  Cause: " + e, e);
+                }
+                iterator = current.iterator();
+            }
+            action.accept(iterator.next());
+            return true;
+        }
+
+        void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+                iterator = null;
+            }
+        }
+    }
+
+    /**
+     * 按 "createTime desc, id" 这样的描述比较结果对象的属性，null排在前面
+     */
+    private class ShardResultComparator implements Comparator<Object> {
+
+        private final List<String> properties = new ArrayList<String>();
+        private final List<Boolean> descending = new ArrayList<Boolean>();
+
+        ShardResultComparator(String orderBy) {
+            for (String item : orderBy.split(",")) {
+                String[] parts = item.trim().split("\\s+");
+                if (parts[0].length() == 0) {
+                    continue;
+                }
+                properties.add(parts[0]);
+                descending.add(parts.length > 1 && "desc".equalsIgnoreCase(parts[1]));
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @Override
+        public int compare(Object left, Object right) {
+            MetaObject metaLeft = configuration.newMetaObject(left);
+            MetaObject metaRight = configuration.newMetaObject(right);
+            for (int i = 0; i < properties.size(); i++) {
+                Comparable leftValue = (Comparable) metaLeft.getValue(properties.get(i));
+                Comparable rightValue = (Comparable) metaRight.getValue(properties.get(i));
+                int result;
+                if (leftValue == null) {
+                    result = rightValue == null ? 0 : -1;
+                } else if (rightValue == null) {
+                    result = 1;
+                } else {
+                    result = leftValue.compareTo(rightValue);
+                }
+                if (result != 0) {
+                    return descending.get(i) ? -result : result;
+                }
+            }
+            return 0;
+        }
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.executor;
 
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
@@ -79,6 +80,12 @@ public class SimpleExecutor extends BaseExecutor {
     }
   }
 
+  //Statement在结果集关闭时才关闭
+  @Override
+  protected <E> ResultSetSpliterator<E> doQueryStream(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    return queryStreamOnNewStatement(ms, parameter, rowBounds, boundSql);
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
 	//doFlushStatements只是给batch用的，所以这里返回空
@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.Arrays;
+
+/**
+ * 一条映射语句的运行状况
+ * 记录最近的执行耗时，用来按p99计算自适应超时；
+ * 记录最近的执行结果(失败或者超过慢调用阈值都算失败)，失败率超过阈值就熔断一段时间，
+ * 期间直接拒绝执行，之后放一个试探的调用过去，成功了才恢复。
+ */
+public class StatementHealth {
+
+    //参与计算分位数的最近耗时个数
+    private static final int LATENCY_WINDOW = 128;
+    //至少有这么多样本才开始调整超时
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int latencyIndex;
+    //缓存算好的p99，新记录一批耗时之后再重新算
+    private long p99 = -1;
+
+    private boolean[] outcomes = new boolean[0];
+    private int outcomeCount;
+    private int outcomeIndex;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * 执行前调用，熔断器打开时抛CircuitBreakerOpenException
+     *
+     * @return 这次调用是不是半开时放过去的试探调用，要原样传给complete
+     */
+    public synchronized boolean acquirePermission(MappedStatement ms, Configuration configuration) {
+        if (!ms.isCircuitBreaker()) {
+            return false;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < configuration.getCircuitBreakerOpenDuration()) {
+                throw new CircuitBreakerOpenException("Circuit breaker of statement '" + ms.getId() + "' is open.");
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            //半开时只放一个试探的调用
+            if (trialInFlight) {
+                throw new CircuitBreakerOpenException("Circuit breaker of statement '" + ms.getId() + "' is half open, waiting for a trial call.");
+            }
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 执行后调用
+     *
+     * @param trial acquirePermission的返回值，只有试探调用能结束半开状态
+     * @param failed 是否失败，null表示这次不算(比如只是加入了批处理，或者不是数据库的错误)
+     */
+    public synchronized void complete(MappedStatement ms, Configuration configuration, boolean trial, long millis, Boolean failed) {
+        //熔断前就开始执行的调用在半开时结束，不能占用试探的名额
+        if (trial) {
+            trialInFlight = false;
+        }
+        if (failed == null) {
+            return;
+        }
+        //失败和超时的调用也记下耗时，数据库变慢时超时的调用才能把p99和超时抬上去，否则超时只会越收越紧
+        recordLatency(millis);
+        if (!ms.isCircuitBreaker()) {
+            return;
+        }
+        int slowCallThreshold = configuration.getCircuitBreakerSlowCallThreshold();
+        boolean bad = failed || (slowCallThreshold > 0 && millis > slowCallThreshold);
+        if (trial) {
+            if (bad) {
+                open();
+            } else {
+                state = State.CLOSED;
+                resetOutcomes(configuration.getCircuitBreakerWindowSize());
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            return;
+        }
+        recordOutcome(bad, configuration.getCircuitBreakerWindowSize());
+        if (outcomeCount == outcomes.length && failureCount * 100 >= configuration.getCircuitBreakerFailureRateThreshold() * outcomeCount) {
+            open();
+        }
+    }
+
+    /**
+     * 自适应超时(秒)：最近耗时p99的adaptiveTimeoutMultiplier倍，至少1秒，不超过配置的超时
+     * 半开时的试探调用用配置的超时，不然数据库变慢以后试探总是超时，熔断器就一直恢复不了
+     */
+    public synchronized Integer adaptTimeout(Integer configuredTimeout, Configuration configuration) {
+        if (state == State.HALF_OPEN || latencyCount < MIN_LATENCY_SAMPLES) {
+            return configuredTimeout;
+        }
+        if (p99 < 0) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            p99 = sorted[(int) Math.ceil(latencyCount * 0.99) - 1];
+        }
+        long millis = p99 * configuration.getAdaptiveTimeoutMultiplier();
+        int seconds = (int) Math.max(1, (millis + 999) / 1000);
+        if (configuredTimeout != null && configuredTimeout < seconds) {
+            return configuredTimeout;
+        }
+        return seconds;
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    private void recordLatency(long millis) {
+        latencies[latencyIndex] = millis;
+        latencyIndex = (latencyIndex + 1) % LATENCY_WINDOW;
+        if (latencyCount < LATENCY_WINDOW) {
+            latencyCount++;
+        }
+        //每记16次重新算一次p99
+        if (latencyIndex % 16 == 0) {
+            p99 = -1;
+        }
+    }
+
+    private void recordOutcome(boolean bad, int windowSize) {
+        if (outcomes.length != windowSize) {
+            resetOutcomes(windowSize);
+        }
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[outcomeIndex]) {
+                failureCount--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = bad;
+        if (bad) {
+            failureCount++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+    }
+
+    private void resetOutcomes(int windowSize) {
+        outcomes = new boolean[Math.max(1, windowSize)];
+        outcomeCount = 0;
+        outcomeIndex = 0;
+        failureCount = 0;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+}
@@ -18,24 +18,34 @@ package org.apache.ibatis.executor.keygen;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.invoker.Invoker;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
+import java.lang.reflect.Array;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * JDBC3键值生成器,核心是使用JDBC3的Statement.getGeneratedKeys
- * 
+ * 每个MappedStatement有自己的实例，按参数类型缓存编译好的主键回填计划(setter+类型处理器)，
+ * 批量插入时每行只按列下标取值再调用setter，不再为每个参数创建MetaObject
  */
 public class Jdbc3KeyGenerator implements KeyGenerator {
 
+  //参数类型 -> 主键回填计划
+  private final Map<Class<?>, KeyAssigner> keyAssigners = new ConcurrentHashMap<Class<?>, KeyAssigner>();
+
   @Override
   public void processBefore(Executor executor, MappedStatement ms, Statement stmt, Object parameter) {
     // do nothing
@@ -55,23 +65,24 @@ public class Jdbc3KeyGenerator implements KeyGenerator {
       //核心是使用JDBC3的Statement.getGeneratedKeys
       rs = stmt.getGeneratedKeys();
       final Configuration configuration = ms.getConfiguration();
-      final TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
       final String[] keyProperties = ms.getKeyProperties();
       final ResultSetMetaData rsmd = rs.getMetaData();
-      TypeHandler<?>[] typeHandlers = null;
       if (keyProperties != null && rsmd.getColumnCount() >= keyProperties.length) {
-        for (Object parameter : parameters) {
+        KeyAssigner assigner = null;
+        for (Object parameter : expandParameters(parameters)) {
           // there should be one row for each statement (also one for each parameter)
           if (!rs.next()) {
             break;
           }
-          final MetaObject metaParam = configuration.newMetaObject(parameter);
-          if (typeHandlers == null) {
-            //先取得类型处理器
-            typeHandlers = getTypeHandlers(typeHandlerRegistry, metaParam, keyProperties);
+          if (parameter == null) {
+            continue;
+          }
+          //同一批参数类型一般都一样，只有类型变化时才去查缓存
+          if (assigner == null || assigner.type != parameter.getClass()) {
+            assigner = getKeyAssigner(configuration, keyProperties, parameter);
           }
           //填充键值
-          populateKeys(rs, metaParam, keyProperties, typeHandlers);
+          assigner.assign(rs, parameter);
         }
       }
     } catch (Exception e) {
@@ -87,24 +98,103 @@ public class Jdbc3KeyGenerator implements KeyGenerator {
     }
   }
 
-  private TypeHandler<?>[] getTypeHandlers(TypeHandlerRegistry typeHandlerRegistry, MetaObject metaParam, String[] keyProperties) {
-    TypeHandler<?>[] typeHandlers = new TypeHandler<?>[keyProperties.length];
-    for (int i = 0; i < keyProperties.length; i++) {
-      if (metaParam.hasSetter(keyProperties[i])) {
-        Class<?> keyPropertyType = metaParam.getSetterType(keyProperties[i]);
-        TypeHandler<?> th = typeHandlerRegistry.getTypeHandler(keyPropertyType);
-        typeHandlers[i] = th;
+  /**
+   * 集合和数组参数(包括DefaultSqlSession包装过的list/collection/array)展开成每一行对应的元素，
+   * 这样多行insert和批量执行都能一行行回填主键
+   */
+  private List<Object> expandParameters(List<Object> parameters) {
+    List<Object> expanded = new ArrayList<Object>(parameters.size());
+    for (Object parameter : parameters) {
+      if (parameter instanceof DefaultSqlSession.StrictMap) {
+        Map<?, ?> map = (Map<?, ?>) parameter;
+        if (map.containsKey("collection")) {
+          parameter = map.get("collection");
+        } else if (map.containsKey("array")) {
+          parameter = map.get("array");
+        }
+      }
+      if (parameter instanceof Collection) {
+        expanded.addAll((Collection<?>) parameter);
+      } else if (parameter != null && parameter.getClass().isArray()) {
+        for (int i = 0, n = Array.getLength(parameter); i < n; i++) {
+          expanded.add(Array.get(parameter, i));
+        }
+      } else {
+        expanded.add(parameter);
       }
     }
-    return typeHandlers;
+    return expanded;
   }
 
-  private void populateKeys(ResultSet rs, MetaObject metaParam, String[] keyProperties, TypeHandler<?>[] typeHandlers) throws SQLException {
-    for (int i = 0; i < keyProperties.length; i++) {
-      TypeHandler<?> th = typeHandlers[i];
-      if (th != null) {
-        Object value = th.getResult(rs, i + 1);
-        metaParam.setValue(keyProperties[i], value);
+  private KeyAssigner getKeyAssigner(Configuration configuration, String[] keyProperties, Object parameter) {
+    KeyAssigner assigner = keyAssigners.get(parameter.getClass());
+    if (assigner == null) {
+      assigner = new KeyAssigner(configuration, keyProperties, parameter);
+      keyAssigners.put(parameter.getClass(), assigner);
+    }
+    return assigner;
+  }
+
+  /**
+   * 主键回填计划，按列下标对应每个keyProperty的setter和类型处理器
+   * Map参数或者嵌套属性(a.b)只能通过MetaObject设置，但类型处理器还是只解析一次
+   */
+  private static class KeyAssigner {
+
+    private final Class<?> type;
+    private final Configuration configuration;
+    private final String[] keyProperties;
+    private final TypeHandler<?>[] typeHandlers;
+    //为空时通过MetaObject设置
+    private final Invoker[] setters;
+
+    private KeyAssigner(Configuration configuration, String[] keyProperties, Object parameter) {
+      this.type = parameter.getClass();
+      this.configuration = configuration;
+      this.keyProperties = keyProperties;
+      this.typeHandlers = new TypeHandler<?>[keyProperties.length];
+      final TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+      if (parameter instanceof Map || hasNestedProperty(keyProperties)) {
+        this.setters = null;
+        final MetaObject metaParam = configuration.newMetaObject(parameter);
+        for (int i = 0; i < keyProperties.length; i++) {
+          if (metaParam.hasSetter(keyProperties[i])) {
+            typeHandlers[i] = typeHandlerRegistry.getTypeHandler(metaParam.getSetterType(keyProperties[i]));
+          }
+        }
+      } else {
+        this.setters = new Invoker[keyProperties.length];
+        final MetaClass metaClass = MetaClass.forClass(type);
+        for (int i = 0; i < keyProperties.length; i++) {
+          if (metaClass.hasSetter(keyProperties[i])) {
+            setters[i] = metaClass.getSetInvoker(keyProperties[i]);
+            typeHandlers[i] = typeHandlerRegistry.getTypeHandler(metaClass.getSetterType(keyProperties[i]));
+          }
+        }
+      }
+    }
+
+    private static boolean hasNestedProperty(String[] keyProperties) {
+      for (String keyProperty : keyProperties) {
+        if (keyProperty.indexOf('.') > -1 || keyProperty.indexOf('[') > -1) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void assign(ResultSet rs, Object parameter) throws Exception {
+      final MetaObject metaParam = setters == null ? configuration.newMetaObject(parameter) : null;
+      for (int i = 0; i < keyProperties.length; i++) {
+        TypeHandler<?> th = typeHandlers[i];
+        if (th != null) {
+          Object value = th.getResult(rs, i + 1);
+          if (metaParam != null) {
+            metaParam.setValue(keyProperties[i], value);
+          } else {
+            setters[i].invoke(parameter, new Object[] {value});
+          }
+        }
       }
     }
   }
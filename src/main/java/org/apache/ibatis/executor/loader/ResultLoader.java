@@ -78,12 +78,21 @@ public class ResultLoader {
     }
 
     private <E> List<E> selectList() throws SQLException {
+        return selectList(parameterObject, cacheKey, boundSql);
+    }
+
+    //ResultLoaderGroup批量加载时换成key列表作为参数
+    <E> List<E> selectList(Object parameterObject, CacheKey cacheKey, BoundSql boundSql) throws SQLException {
         Executor localExecutor = executor;
         //如果executor已经被关闭了，则创建一个新的
         if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
             localExecutor = newExecutor();
         }
         try {
+            //没有提前算好缓存key的(反序列化或批量加载)，交给Executor自己生成
+            if (cacheKey == null || boundSql == null) {
+                return localExecutor.<E>query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+            }
             //又调回Executor.query去了，比较巧妙
             return localExecutor.<E>query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
         } finally {
@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * 批量延迟加载组
+ * 同一个结果集里同一个延迟加载属性的所有对象注册到一个组里，
+ * 任何一个对象触发加载时，用一次IN查询把最多batchSize个还没加载的兄弟对象的该属性一起加载
+ * 组内的状态用组自身加锁保护，查询和结果转换在锁内完成，查到的兄弟的值先放在loaded里，
+ * 由兄弟自己的getter触发加载时取走回填，触发者只回填自己的属性。
+ * 这样回填总是在属性所属代理对象的synchronized(lazyLoader)里完成，不会去拿别的代理对象的锁，
+ * 也不会有兄弟在值回填之前就读到属性
+ */
+public class ResultLoaderGroup {
+
+    private final Configuration configuration;
+    //子对象中用来和key匹配的属性
+    private final String batchKey;
+    private final int batchSize;
+    private final ResultExtractor resultExtractor;
+    //还没有加载的属性，按注册的顺序
+    private final Set<ResultLoaderMap.LoadPair> pending = new LinkedHashSet<ResultLoaderMap.LoadPair>();
+    //已经和别的兄弟一起查出来、还没回填的值
+    private final Map<ResultLoaderMap.LoadPair, Object> loaded = new HashMap<ResultLoaderMap.LoadPair, Object>();
+
+    public ResultLoaderGroup(Configuration configuration, String batchKey, int batchSize) {
+        this.configuration = configuration;
+        this.batchKey = batchKey;
+        this.batchSize = batchSize;
+        this.resultExtractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+    }
+
+    synchronized void add(ResultLoaderMap.LoadPair loadPair) {
+        pending.add(loadPair);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    void load(ResultLoaderMap.LoadPair trigger) throws SQLException {
+        final Object value;
+        synchronized (this) {
+            if (loaded.containsKey(trigger)) {
+                //已经和别的兄弟一起查出来了
+                value = loaded.remove(trigger);
+            } else if (pending.contains(trigger)) {
+                final List<ResultLoaderMap.LoadPair> batch = new ArrayList<ResultLoaderMap.LoadPair>();
+                batch.add(trigger);
+                for (ResultLoaderMap.LoadPair loadPair : pending) {
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                    if (loadPair != trigger) {
+                        batch.add(loadPair);
+                    }
+                }
+                //查询成功后才移出pending，查询失败时兄弟们还能再各自触发加载
+                final List<Object> values = loadValues(trigger, batch);
+                pending.removeAll(batch);
+                for (int i = 1; i < batch.size(); i++) {
+                    loaded.put(batch.get(i), values.get(i));
+                }
+                value = values.get(0);
+            } else {
+                return;
+            }
+        }
+
+        //锁外回填，回填时会经过触发者代理对象的拦截器
+        trigger.setLoadedValue(value);
+    }
+
+    //执行一次IN查询，按batch的顺序返回每个属性的值
+    private List<Object> loadValues(ResultLoaderMap.LoadPair trigger, List<ResultLoaderMap.LoadPair> batch) throws SQLException {
+        //相同的key只查一次
+        final Map<String, Object> keys = new LinkedHashMap<String, Object>();
+        for (ResultLoaderMap.LoadPair loadPair : batch) {
+            final Object key = loadPair.getResultLoader().parameterObject;
+            keys.put(String.valueOf(key), key);
+        }
+        final Map<String, List<Object>> childrenByKey = new HashMap<String, List<Object>>();
+        for (Object child : selectChildren(trigger.getResultLoader(), new ArrayList<Object>(keys.values()))) {
+            if (child == null) {
+                continue;
+            }
+            final MetaObject metaChild = configuration.newMetaObject(child);
+            final String childKey = String.valueOf(metaChild.getValue(batchKey));
+            List<Object> children = childrenByKey.get(childKey);
+            if (children == null) {
+                children = new ArrayList<Object>();
+                childrenByKey.put(childKey, children);
+            }
+            children.add(child);
+        }
+
+        //和ResultLoader.loadResult一样按属性的类型转换结果(集合/数组/单个对象)
+        final List<Object> values = new ArrayList<Object>(batch.size());
+        for (ResultLoaderMap.LoadPair loadPair : batch) {
+            final ResultLoader resultLoader = loadPair.getResultLoader();
+            List<Object> children = childrenByKey.get(String.valueOf(resultLoader.parameterObject));
+            if (children == null) {
+                children = new ArrayList<Object>();
+            }
+            values.add(resultExtractor.extractObjectFromList(children, resultLoader.targetType));
+        }
+        return values;
+    }
+
+    //参数和DefaultSqlSession包装集合参数一样，嵌套查询里用<foreach collection="list">
+    //用触发者的ResultLoader执行，执行器已关闭或换了线程时它会新建执行器
+    private List<Object> selectChildren(ResultLoader resultLoader, List<Object> keys) throws SQLException {
+        final DefaultSqlSession.StrictMap<Object> parameter = new DefaultSqlSession.StrictMap<Object>();
+        parameter.put("collection", keys);
+        parameter.put("list", keys);
+        return resultLoader.selectList(parameter, null, null);
+    }
+
+}
@@ -18,6 +18,7 @@ package org.apache.ibatis.executor.loader;
 import org.apache.ibatis.executor.BaseExecutor;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.mapping.BoundSql;
@@ -47,6 +48,11 @@ public class ResultLoaderMap {
 
   //把要延迟加载的属性记到ResultLoaderMap里（一个哈希表）
   public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader) {
+    addLoader(property, metaResultObject, resultLoader, null);
+  }
+
+  //group不为空时，该属性和兄弟对象的同名属性一起批量加载
+  public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader, ResultLoaderGroup group) {
     String upperFirst = getUppercaseFirstProperty(property);
     if (!upperFirst.equalsIgnoreCase(property) && loaderMap.containsKey(upperFirst)) {
       throw new ExecutorException("Nested lazy loaded result property '" + property +
@@ -58,7 +64,11 @@ public class ResultLoaderMap {
 //    if (lazyLoader.hasLoader(property)) {
 //        lazyLoader.load(property);
 //    }
-    loaderMap.put(upperFirst, new LoadPair(property, metaResultObject, resultLoader));
+    LoadPair loadPair = new LoadPair(property, metaResultObject, resultLoader, group);
+    if (group != null) {
+      group.add(loadPair);
+    }
+    loaderMap.put(upperFirst, loadPair);
   }
 
   public final Map<String, LoadPair> getProperties() {
@@ -144,11 +154,16 @@ public class ResultLoaderMap {
      * Parameter of the sql statement.
      */
     private Serializable mappedParameter;
+    /**
+     * Group of sibling properties loaded together, null if loaded one by one.
+     */
+    private transient ResultLoaderGroup group;
 
-    private LoadPair(final String property, MetaObject metaResultObject, ResultLoader resultLoader) {
+    private LoadPair(final String property, MetaObject metaResultObject, ResultLoader resultLoader, ResultLoaderGroup group) {
       this.property = property;
       this.metaResultObject = metaResultObject;
       this.resultLoader = resultLoader;
+      this.group = group;
 
       /* Save required information only if original object can be serialized. */
       if (metaResultObject != null && metaResultObject.getOriginalObject() instanceof Serializable) {
@@ -204,6 +219,12 @@ public class ResultLoaderMap {
                 metaResultObject.getSetterType(this.property), null, null);
       }
 
+      /* Loaded together with its siblings, the group sets the value. */
+      if (this.group != null && this.serializationCheck != null) {
+        this.group.load(this);
+        return;
+      }
+
       /* We are using a new executor because we may be (and likely are) on a new thread
        * and executors aren't thread safe. (Is this sufficient?)
        *
@@ -217,6 +238,14 @@ public class ResultLoaderMap {
       this.metaResultObject.setValue(property, this.resultLoader.loadResult());
     }
 
+    ResultLoader getResultLoader() {
+      return resultLoader;
+    }
+
+    void setLoadedValue(Object value) {
+      this.metaResultObject.setValue(property, value);
+    }
+
     private Configuration getConfiguration() {
       if (this.configurationFactory == null) {
         throw new ExecutorException("Cannot get Configuration as configuration factory was not set.");
@@ -303,5 +332,10 @@ public class ResultLoaderMap {
     protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
       throw new UnsupportedOperationException("Not supported.");
     }
+
+    @Override
+    protected <E> ResultSetSpliterator<E> doQueryStream(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+      throw new UnsupportedOperationException("Not supported.");
+    }
   }
 }
@@ -0,0 +1,31 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+/**
+ * 数据库方言，负责把分页条件改写进SQL
+ * offset和limit都是int，直接拼进SQL，不会有注入的问题
+ */
+public interface Dialect {
+
+    /**
+     * @param sql    原来的SQL
+     * @param offset 跳过的行数
+     * @param limit  最多返回的行数，RowBounds.NO_ROW_LIMIT表示不限制
+     */
+    String getPagedSql(String sql, int offset, int limit);
+
+}
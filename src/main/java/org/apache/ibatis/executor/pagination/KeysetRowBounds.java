@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 键集(seek)分页：不用OFFSET，而是从上一页最后一行的键之后开始取
+ * 键列必须唯一确定顺序(一般最后一列用主键)，列名直接拼进SQL，不能来自用户输入。
+ * 第一页lastValues传null。
+ */
+public class KeysetRowBounds extends RowBounds {
+
+    private final String[] columns;
+    private final Object[] lastValues;
+    private final boolean descending;
+
+    public KeysetRowBounds(int limit, String[] columns, Object[] lastValues) {
+        this(limit, columns, lastValues, false);
+    }
+
+    public KeysetRowBounds(int limit, String[] columns, Object[] lastValues, boolean descending) {
+        super(NO_ROW_OFFSET, limit);
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("Keyset pagination needs at least one key column.");
+        }
+        if (lastValues != null && lastValues.length != columns.length) {
+            throw new IllegalArgumentException("Keyset pagination needs one last value per key column.");
+        }
+        this.columns = columns;
+        this.lastValues = lastValues;
+        this.descending = descending;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public Object[] getLastValues() {
+        return lastValues;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+}
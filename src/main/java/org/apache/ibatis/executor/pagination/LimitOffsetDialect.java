@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+/**
+ * LIMIT n OFFSET m
+ * MySQL、MariaDB、PostgreSQL、H2、HSQLDB、SQLite
+ */
+public class LimitOffsetDialect implements Dialect {
+
+    @Override
+    public String getPagedSql(String sql, int offset, int limit) {
+        //MySQL不支持单独的OFFSET，所以总是带上LIMIT
+        StringBuilder paged = new StringBuilder(sql.length() + 32);
+        paged.append(sql).append(" LIMIT ").append(limit);
+        if (offset > 0) {
+            paged.append(" OFFSET ").append(offset);
+        }
+        return paged.toString();
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+import org.apache.ibatis.session.RowBounds;
+
+import java.util.Locale;
+
+/**
+ * SQL:2008的OFFSET m ROWS FETCH NEXT n ROWS ONLY
+ * DB2、Derby、SQL Server 2012+、Oracle 12c+
+ */
+public class OffsetFetchDialect implements Dialect {
+
+    //SQL Server的OFFSET必须跟在ORDER BY后面
+    private final boolean orderByRequired;
+
+    public OffsetFetchDialect() {
+        this(false);
+    }
+
+    public OffsetFetchDialect(boolean orderByRequired) {
+        this.orderByRequired = orderByRequired;
+    }
+
+    @Override
+    public String getPagedSql(String sql, int offset, int limit) {
+        StringBuilder paged = new StringBuilder(sql.length() + 64);
+        paged.append(sql);
+        if (orderByRequired && !sql.toLowerCase(Locale.ENGLISH).contains("order by")) {
+            paged.append(" ORDER BY (SELECT NULL)");
+        }
+        paged.append(" OFFSET ").append(offset).append(" ROWS");
+        if (limit != RowBounds.NO_ROW_LIMIT) {
+            paged.append(" FETCH NEXT ").append(limit).append(" ROWS ONLY");
+        }
+        return paged.toString();
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 物理分页，可以顺便查总数
+ * 不管有没有开启physicalPaginationEnabled，都会改写SQL
+ */
+public class PageRowBounds extends RowBounds {
+
+    //是否先执行count查询
+    private final boolean count;
+    //count查询的结果，没查时为-1
+    private long total = -1;
+
+    public PageRowBounds(int offset, int limit) {
+        this(offset, limit, false);
+    }
+
+    public PageRowBounds(int offset, int limit, boolean count) {
+        super(offset, limit);
+        this.count = count;
+    }
+
+    public boolean isCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+}
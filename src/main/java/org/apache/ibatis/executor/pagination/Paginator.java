@@ -0,0 +1,275 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.sharding.ShardedTransaction;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 物理分页
+ * 在Executor.query里、语句预编译之前把RowBounds改写进SQL(LIMIT/OFFSET、FETCH FIRST、ROWNUM)，
+ * 之后按RowBounds.DEFAULT执行，DefaultResultSetHandler就不用再一行行跳过前面的数据了。
+ * 方言先看paginationDialect设置，再看databaseId，最后看连接的DatabaseMetaData。
+ */
+public class Paginator {
+
+    private static final String COUNT_SUFFIX = "!count";
+    private static final String KEYSET_PARAMETER_PREFIX = "__keyset_";
+
+    private final Configuration configuration;
+    private volatile Dialect dialect;
+    //每条语句对应的count语句
+    private final ConcurrentMap<String, MappedStatement> countStatements = new ConcurrentHashMap<String, MappedStatement>();
+
+    public Paginator(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * 这次查询要不要改写成物理分页
+     */
+    public boolean isApplicable(Executor executor, MappedStatement ms, RowBounds rowBounds) {
+        if (rowBounds == null || rowBounds == RowBounds.DEFAULT) {
+            return false;
+        }
+        boolean explicit = rowBounds instanceof PageRowBounds || rowBounds instanceof KeysetRowBounds;
+        if (!explicit && (!configuration.isPhysicalPaginationEnabled()
+                || (rowBounds.getOffset() == RowBounds.NO_ROW_OFFSET && rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT))) {
+            return false;
+        }
+        //嵌套结果映射一个对象对应多行，存储过程和多结果集也没法改写，还是在内存里分页
+        //分库时由ShardingExecutor合并后再分页，每个分库的执行器自己会改写
+        boolean rewritable = ms.getSqlCommandType() == SqlCommandType.SELECT
+                && ms.getStatementType() != StatementType.CALLABLE
+                && !ms.hasNestedResultMaps()
+                && ms.getResulSets() == null
+                && !(executor.getTransaction() instanceof ShardedTransaction);
+        if (!rewritable && rowBounds instanceof KeysetRowBounds) {
+            throw new ExecutorException("Keyset pagination is not supported for statement '" + ms.getId() + "'.");
+        }
+        return rewritable;
+    }
+
+    /**
+     * 改写BoundSql，PageRowBounds要求count时先执行count查询
+     */
+    public BoundSql paginate(Executor executor, MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+        Dialect dialect = getDialect(executor);
+        String sql = trimSql(boundSql.getSql());
+        if (rowBounds instanceof PageRowBounds && ((PageRowBounds) rowBounds).isCount()) {
+            ((PageRowBounds) rowBounds).setTotal(count(executor, ms, parameter, boundSql, sql));
+        }
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        Object[] keysetValues = null;
+        if (rowBounds instanceof KeysetRowBounds) {
+            KeysetRowBounds keyset = (KeysetRowBounds) rowBounds;
+            keysetValues = keyset.getLastValues();
+            sql = getKeysetSql(sql, keyset);
+            if (keysetValues != null) {
+                parameterMappings = new ArrayList<ParameterMapping>(parameterMappings);
+                addKeysetParameterMappings(parameterMappings, keysetValues);
+            }
+        }
+        if (rowBounds.getOffset() != RowBounds.NO_ROW_OFFSET || rowBounds.getLimit() != RowBounds.NO_ROW_LIMIT) {
+            sql = dialect.getPagedSql(sql, rowBounds.getOffset(), rowBounds.getLimit());
+        }
+        BoundSql pagedBoundSql = boundSql.rewrite(configuration, sql, parameterMappings);
+        if (keysetValues != null) {
+            for (int i = 0; i < keysetValues.length; i++) {
+                pagedBoundSql.setAdditionalParameter(KEYSET_PARAMETER_PREFIX + i, keysetValues[i]);
+            }
+        }
+        return pagedBoundSql;
+    }
+
+    public Dialect getDialect(Executor executor) throws SQLException {
+        if (dialect == null) {
+            dialect = resolveDialect(executor);
+        }
+        return dialect;
+    }
+
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    private Dialect resolveDialect(Executor executor) throws SQLException {
+        String name = configuration.getPaginationDialect();
+        if (name != null) {
+            Dialect dialect = forDatabase(name);
+            if (dialect != null) {
+                return dialect;
+            }
+            try {
+                return (Dialect) configuration.getTypeAliasRegistry().resolveAlias(name).newInstance();
+            } catch (Exception e) {
+                throw new ExecutorException("Error creating pagination dialect '" + name + "'.  Cause: " + e, e);
+            }
+        }
+        if (configuration.getDatabaseId() != null) {
+            Dialect dialect = forDatabase(configuration.getDatabaseId());
+            if (dialect != null) {
+                return dialect;
+            }
+        }
+        String productName = executor.getTransaction().getConnection().getMetaData().getDatabaseProductName();
+        Dialect dialect = forDatabase(productName);
+        if (dialect == null) {
+            throw new ExecutorException("Could not detect the pagination dialect of '" + productName
+                    + "'. Please configure the paginationDialect setting.");
+        }
+        return dialect;
+    }
+
+    //按数据库名(databaseId或者DatabaseMetaData.getDatabaseProductName)找方言
+    static Dialect forDatabase(String name) {
+        String database = name.toLowerCase(Locale.ENGLISH);
+        if (database.contains("mysql") || database.contains("mariadb") || database.contains("postgres")
+                || database.contains("h2") || database.contains("hsql") || database.contains("sqlite")) {
+            return new LimitOffsetDialect();
+        } else if (database.contains("sql server") || database.contains("sqlserver")) {
+            return new OffsetFetchDialect(true);
+        } else if (database.contains("db2") || database.contains("derby")) {
+            return new OffsetFetchDialect();
+        } else if (database.contains("oracle")) {
+            return new RowNumDialect();
+        }
+        return null;
+    }
+
+    private long count(Executor executor, MappedStatement ms, Object parameter, BoundSql boundSql, String sql) throws SQLException {
+        MappedStatement countStatement = getCountStatement(ms);
+        String countSql = "SELECT COUNT(*) FROM (" + removeOrderBy(sql) + ") count_";
+        BoundSql countBoundSql = boundSql.rewrite(configuration, countSql, boundSql.getParameterMappings());
+        CacheKey countKey = executor.createCacheKey(countStatement, parameter, RowBounds.DEFAULT, countBoundSql);
+        List<Object> result = executor.query(countStatement, parameter, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, countKey, countBoundSql);
+        if (result.isEmpty() || result.get(0) == null) {
+            return 0;
+        }
+        return ((Number) result.get(0)).longValue();
+    }
+
+    private MappedStatement getCountStatement(MappedStatement ms) {
+        MappedStatement countStatement = countStatements.get(ms.getId());
+        if (countStatement == null) {
+            String id = ms.getId() + COUNT_SUFFIX;
+            List<ResultMap> resultMaps = new ArrayList<ResultMap>();
+            resultMaps.add(new ResultMap.Builder(configuration, id + "-Inline", Long.class, new ArrayList<ResultMapping>()).build());
+            //count语句执行时直接传入改写好的BoundSql，SqlSource沿用原来的
+            countStatement = new MappedStatement.Builder(configuration, id, ms.getSqlSource(), SqlCommandType.SELECT)
+                    .resource(ms.getResource())
+                    .statementType(ms.getStatementType())
+                    .parameterMap(ms.getParameterMap())
+                    .resultMaps(resultMaps)
+                    .timeout(ms.getTimeout())
+                    .useCache(false)
+                    .databaseId(ms.getDatabaseId())
+                    .lang(ms.getLang())
+                    .build();
+            MappedStatement existing = countStatements.putIfAbsent(ms.getId(), countStatement);
+            if (existing != null) {
+                countStatement = existing;
+            }
+        }
+        return countStatement;
+    }
+
+    //select * from (原SQL) keyset_ where 键列 > 上一页最后的值 order by 键列
+    private String getKeysetSql(String sql, KeysetRowBounds keyset) {
+        String[] columns = keyset.getColumns();
+        String operator = keyset.isDescending() ? " < ?" : " > ?";
+        StringBuilder keysetSql = new StringBuilder(sql.length() + 128);
+        keysetSql.append("SELECT * FROM (").append(sql).append(") keyset_");
+        if (keyset.getLastValues() != null) {
+            //(a > ?) OR (a = ? AND b > ?) ...
+            keysetSql.append(" WHERE ");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    keysetSql.append(" OR ");
+                }
+                keysetSql.append('(');
+                for (int j = 0; j < i; j++) {
+                    keysetSql.append(columns[j]).append(" = ? AND ");
+                }
+                keysetSql.append(columns[i]).append(operator).append(')');
+            }
+        }
+        keysetSql.append(" ORDER BY ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                keysetSql.append(", ");
+            }
+            keysetSql.append(columns[i]);
+            if (keyset.isDescending()) {
+                keysetSql.append(" DESC");
+            }
+        }
+        return keysetSql.toString();
+    }
+
+    //和getKeysetSql里?的顺序一致
+    private void addKeysetParameterMappings(List<ParameterMapping> parameterMappings, Object[] lastValues) {
+        for (int i = 0; i < lastValues.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                if (lastValues[j] == null) {
+                    throw new ExecutorException("Keyset pagination does not support null key values.");
+                }
+                String property = KEYSET_PARAMETER_PREFIX + j;
+                Class<?> javaType = lastValues[j].getClass();
+                parameterMappings.add(new ParameterMapping.Builder(configuration, property, javaType)
+                        .typeHandler(configuration.getTypeHandlerRegistry().getTypeHandler(javaType))
+                        .build());
+            }
+        }
+    }
+
+    //去掉最后的分号
+    private static String trimSql(String sql) {
+        String trimmed = sql.trim();
+        while (trimmed.endsWith(";")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        return trimmed;
+    }
+
+    //count不需要排序，去掉最外层末尾的ORDER BY(SQL Server的子查询里也不允许)
+    private static String removeOrderBy(String sql) {
+        int index = sql.toLowerCase(Locale.ENGLISH).lastIndexOf("order by");
+        if (index < 0 || sql.indexOf(')', index) >= 0 || sql.indexOf('?', index) >= 0) {
+            return sql;
+        }
+        return sql.substring(0, index);
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.pagination;
+
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * Oracle 12c以前的ROWNUM分页
+ * 有offset时结果里会多一列rownum_
+ */
+public class RowNumDialect implements Dialect {
+
+    @Override
+    public String getPagedSql(String sql, int offset, int limit) {
+        long end = limit == RowBounds.NO_ROW_LIMIT ? Long.MAX_VALUE : (long) offset + limit;
+        StringBuilder paged = new StringBuilder(sql.length() + 128);
+        if (offset == 0) {
+            paged.append("SELECT * FROM (").append(sql).append(") WHERE ROWNUM <= ").append(end);
+        } else {
+            paged.append("SELECT * FROM (SELECT row_.*, ROWNUM rownum_ FROM (").append(sql).append(") row_");
+            if (end != Long.MAX_VALUE) {
+                paged.append(" WHERE ROWNUM <= ").append(end);
+            }
+            paged.append(") WHERE rownum_ > ").append(offset);
+        }
+        return paged.toString();
+    }
+
+}
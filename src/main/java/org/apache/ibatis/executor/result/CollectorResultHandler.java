@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.result;
+
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.function.BiConsumer;
+import java.util.stream.Collector;
+
+/**
+ * 用java.util.stream.Collector处理结果
+ * DefaultResultSetHandler每映射好一行就累加进去，不保留行对象，
+ * 分组、计数、求和这类汇总只占用结果本身的内存。
+ */
+public class CollectorResultHandler<T, A, R> implements ResultHandler {
+
+    private final Collector<? super T, A, R> collector;
+    private final BiConsumer<A, ? super T> accumulator;
+    private final A container;
+
+    public CollectorResultHandler(Collector<? super T, A, R> collector) {
+        this.collector = collector;
+        this.accumulator = collector.accumulator();
+        this.container = collector.supplier().get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handleResult(ResultContext context) {
+        accumulator.accept(container, (T) context.getResultObject());
+    }
+
+    @SuppressWarnings("unchecked")
+    public R getResult() {
+        if (collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)) {
+            return (R) container;
+        }
+        return collector.finisher().apply(container);
+    }
+
+}
@@ -15,12 +15,18 @@
  */
 package org.apache.ibatis.executor.result;
 
+import org.apache.ibatis.reflection.ExceptionUtil;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -28,12 +34,17 @@ import java.util.Map;
  */
 public class DefaultMapResultHandler<K, V> implements ResultHandler {
 
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
     //内部实现是存了一个Map，key就是指定的Mapkey，V 就是对应数据库的一行数据
     private final Map<K, V> mappedResults;
     //由于返回的是一个map,每个对象需要指定一个key(key可以为pojo中的一个属性值) value-->pojo
     private final String mapKey;
     private final ObjectFactory objectFactory;
     private final ObjectWrapperFactory objectWrapperFactory;
+    //上一行结果的类型和它mapKey的getter，同一次查询的行基本都是同一个类型，不用每行都新建MetaObject
+    private Class<?> lastType;
+    private Invoker keyGetter;
 
     @SuppressWarnings("unchecked")
     public DefaultMapResultHandler(String mapKey, ObjectFactory objectFactory, ObjectWrapperFactory objectWrapperFactory) {
@@ -48,13 +59,43 @@ public class DefaultMapResultHandler<K, V> implements ResultHandler {
     public void handleResult(ResultContext context) {
         //获取每一行结果
         final V value = (V) context.getResultObject();
-        final MetaObject mo = MetaObject.forObject(value, objectFactory, objectWrapperFactory);
         //获取结果集中 关于mapkey的值
-        final K key = (K) mo.getValue(mapKey);
+        final K key = (K) getKey(value);
         //就是把指定的MapKey作为key来进行存放
         mappedResults.put(key, value);
     }
 
+    private Object getKey(Object value) {
+        if (value != null && value.getClass() != lastType) {
+            lastType = value.getClass();
+            keyGetter = resolveKeyGetter(value);
+        }
+        if (value != null && keyGetter != null) {
+            try {
+                return keyGetter.invoke(value, NO_ARGUMENTS);
+            } catch (Throwable t) {
+                Throwable cause = ExceptionUtil.unwrapThrowable(t);
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new ReflectionException("Could not get property '" + mapKey + "' from " + value.getClass() + ".  Cause: " + cause, cause);
+            }
+        }
+        final MetaObject mo = MetaObject.forObject(value, objectFactory, objectWrapperFactory);
+        return mo.getValue(mapKey);
+    }
+
+    //普通JavaBean的简单属性直接用getter，Map、集合、嵌套属性和自定义包装器还是走MetaObject
+    private Invoker resolveKeyGetter(Object value) {
+        if (value instanceof Map || value instanceof Collection || value instanceof ObjectWrapper
+                || objectWrapperFactory.hasWrapperFor(value)
+                || mapKey.indexOf('.') >= 0 || mapKey.indexOf('[') >= 0) {
+            return null;
+        }
+        Reflector reflector = Reflector.forClass(value.getClass());
+        return reflector.hasGetter(mapKey) ? reflector.getGetInvoker(mapKey) : null;
+    }
+
     public Map<K, V> getMappedResults() {
         return mappedResults;
     }
@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.result;
+
+import org.apache.ibatis.type.LongTypeHandler;
+import org.apache.ibatis.type.TypeHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * 收集成long[]
+ */
+public class LongArrayResultHandler extends PrimitiveArrayResultHandler {
+
+    private long[] values = new long[initialCapacity()];
+
+    @Override
+    public boolean supports(TypeHandler<?> typeHandler) {
+        return typeHandler != null && typeHandler.getClass() == LongTypeHandler.class;
+    }
+
+    @Override
+    public void handleRow(ResultSet rs, int columnIndex) throws SQLException {
+        long value = rs.getLong(columnIndex);
+        if (value == 0 && rs.wasNull()) {
+            throw nullElement();
+        }
+        append(value);
+    }
+
+    @Override
+    protected void add(Number value) {
+        append(toLongExact(value));
+    }
+
+    private void append(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(values.length));
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public long[] getResult() {
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.result;
+
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.type.TypeHandler;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 把单列的查询结果直接收集成基本类型数组(int[]、long[]、double[])
+ * 结果映射是简单的单列、并且用的是内置的TypeHandler时，DefaultResultSetHandler直接调用handleRow，
+ * 用rs.getLong(index)之类的方法读值，不会装箱；否则走handleResult，拆箱后放进数组。
+ * 基本类型数组放不了null，遇到null报错；值放不进数组的类型(溢出或者有小数)也报错，不会悄悄截断。
+ */
+public abstract class PrimitiveArrayResultHandler implements ResultHandler {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    //已经收集的个数
+    protected int size;
+
+    /**
+     * 按mapper方法的返回类型找对应的处理器，不支持的类型返回null
+     */
+    public static PrimitiveArrayResultHandler forArrayType(Class<?> arrayType) {
+        if (arrayType == long[].class) {
+            return new LongArrayResultHandler();
+        } else if (arrayType == int[].class) {
+            return new IntArrayResultHandler();
+        } else if (arrayType == double[].class) {
+            return new DoubleArrayResultHandler();
+        }
+        return null;
+    }
+
+    public static boolean isSupported(Class<?> arrayType) {
+        return arrayType == long[].class || arrayType == int[].class || arrayType == double[].class;
+    }
+
+    /**
+     * 这个TypeHandler读出来的值是不是和直接从结果集读一样(用户自己注册的TypeHandler不能绕过)
+     */
+    public abstract boolean supports(TypeHandler<?> typeHandler);
+
+    /**
+     * 直接从结果集的当前行读值
+     */
+    public abstract void handleRow(ResultSet rs, int columnIndex) throws SQLException;
+
+    /**
+     * 收集到的数组，长度正好是结果的个数
+     */
+    public abstract Object getResult();
+
+    @Override
+    public void handleResult(ResultContext context) {
+        Object value = context.getResultObject();
+        if (value == null) {
+            throw nullElement();
+        }
+        add((Number) value);
+    }
+
+    protected abstract void add(Number value);
+
+    public int size() {
+        return size;
+    }
+
+    //1.5倍扩容
+    protected static int grow(int length) {
+        return length < INITIAL_CAPACITY ? INITIAL_CAPACITY : length + (length >> 1);
+    }
+
+    protected static int initialCapacity() {
+        return INITIAL_CAPACITY;
+    }
+
+    /**
+     * 转成long，超出long的范围或者有小数部分时报错
+     */
+    protected long toLongExact(Number value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value.longValue();
+        }
+        try {
+            if (value instanceof BigInteger) {
+                return ((BigInteger) value).longValueExact();
+            }
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).longValueExact();
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return new BigDecimal(value.doubleValue()).longValueExact();
+            }
+            return new BigDecimal(value.toString()).longValueExact();
+        } catch (ArithmeticException e) {
+            throw notRepresentable(value, "long");
+        } catch (NumberFormatException e) {
+            throw notRepresentable(value, "long");
+        }
+    }
+
+    protected ExecutorException notRepresentable(Number value, String type) {
+        return new ExecutorException("Value " + value + " for element " + size + " of a primitive array result cannot be represented as " + type + ".");
+    }
+
+    protected ExecutorException nullElement() {
+        return new ExecutorException("A null value was returned for element " + size + " of a primitive array result.");
+    }
+
+}
@@ -20,15 +20,18 @@ import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.loader.ResultLoader;
+import org.apache.ibatis.executor.loader.ResultLoaderGroup;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.executor.result.DefaultResultHandler;
+import org.apache.ibatis.executor.result.PrimitiveArrayResultHandler;
 import org.apache.ibatis.mapping.*;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.*;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
@@ -38,6 +41,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 默认数据结果处理器，很重要
@@ -46,6 +51,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
     //没有返回结果集 默认的结果集
     private static final Object NO_VALUE = new Object();
+    //嵌套查询被推迟到结果集处理完后批量加载
+    private static final Object DEFERED = new Object();
+    private static final Pattern ORDER_BY_PATTERN = Pattern.compile("\\bORDER\\s+BY\\b");
+    private static final Pattern ORDER_BY_END_PATTERN = Pattern.compile("\\b(LIMIT|OFFSET|FETCH|FOR|UNION|INTERSECT|EXCEPT)\\b");
+    private static final Pattern ORDER_BY_ITEM_PATTERN = Pattern.compile("\\s*([A-Z_][A-Z0-9_$]*)(\\s+(ASC|DESC))?(\\s+NULLS\\s+(FIRST|LAST))?\\s*");
     //执行器
     private final Executor executor;
     private final Configuration configuration;
@@ -61,14 +71,23 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private final ObjectFactory objectFactory;
 
     // nested resultmaps 嵌套的结果集
-    private final Map<CacheKey, Object> nestedResultObjects = new HashMap<CacheKey, Object>();
-    private final Map<CacheKey, Object> ancestorObjects = new HashMap<CacheKey, Object>();
+    private final Map<RowKey, Object> nestedResultObjects = new HashMap<RowKey, Object>();
+    private final Map<RowKey, Object> ancestorObjects = new HashMap<RowKey, Object>();
+    //生成RowKey时收集列值的缓冲区，每行复用
+    private final List<Object> rowKeyValues = new ArrayList<Object>();
     private final Map<String, String> ancestorColumnPrefix = new HashMap<String, String>();
 
     // multiple resultsets
     private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
     private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<CacheKey, List<PendingRelation>>();
 
+    // batched nested queries 等待批量加载的嵌套查询，ResultMapping的equals只比较property，所以按引用区分，按注册顺序执行
+    private final Map<MappingKey, PendingBatchLoad> pendingBatchLoads = new LinkedHashMap<MappingKey, PendingBatchLoad>();
+    // batched lazy loading 每个结果集中同一个延迟加载属性共用一个加载组
+    private final Map<MappingKey, ResultLoaderGroup> lazyLoaderGroups = new LinkedHashMap<MappingKey, ResultLoaderGroup>();
+    //流式读取时采样第一个结果集的实际行宽，不是流式读取时为null
+    private RowWidthSampler rowWidthSampler;
+
     /**
      * 这个是不是延迟加载的？？？
      */
@@ -77,6 +96,35 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         public ResultMapping propertyMapping;
     }
 
+    //按引用比较ResultMapping的key，不同resultMap里同名的属性不会合并
+    private static final class MappingKey {
+        private final ResultMapping mapping;
+
+        MappingKey(ResultMapping mapping) {
+            this.mapping = mapping;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MappingKey && ((MappingKey) o).mapping == mapping;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mapping);
+        }
+    }
+
+    /**
+     * 同一个嵌套查询映射在整个结果集中收集到的key以及需要回填的父对象
+     */
+    private static class PendingBatchLoad {
+        public MappedStatement nestedQuery;
+        //用字符串形式去重和匹配，类型可能不同(如Integer和Long)
+        public final Map<String, Object> keys = new LinkedHashMap<String, Object>();
+        public final Map<String, List<MetaObject>> parents = new HashMap<String, List<MetaObject>>();
+    }
+
     //数据几乎都是传递进来的
     public DefaultResultSetHandler(Executor executor, MappedStatement mappedStatement, ParameterHandler parameterHandler, ResultHandler resultHandler, BoundSql boundSql,
                                    RowBounds rowBounds) {
@@ -163,12 +211,17 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
         //当有结果集时要保证有对应的映射map（如果是pojo,或是基本类型也会存在 ）
         validateResultMapsCount(rsw, resultMapCount);
+        //流式读取采样实际的行宽，下次执行时据此调整fetchSize
+        if (rsw != null && mappedStatement.isStreaming()) {
+            rowWidthSampler = new RowWidthSampler(mappedStatement, rsw.getResultSet());
+        }
 
         while (rsw != null && resultMapCount > resultSetCount) {
             //获取每一个resultMap进行匹配
             ResultMap resultMap = resultMaps.get(resultSetCount);
             //开始进行处理
             handleResultSet(rsw, resultMap, multipleResults, null);
+            finishRowWidthSampling();
             rsw = getNextResultSet(stmt);
             cleanUpAfterHandlingResultSet();
             resultSetCount++;
@@ -192,6 +245,52 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return collapseSingleResultList(multipleResults);
     }
 
+    /**
+     * 以Stream的方式处理第一个结果集，每要一个元素才映射一行
+     * 一行对应一个对象，所以不支持嵌套结果映射；多结果集的后续结果集也不处理
+     */
+    @Override
+    public <E> ResultSetSpliterator<E> handleResultSetsStream(Statement stmt) throws SQLException {
+        ErrorContext.instance().activity("handling results").object(mappedStatement.getId());
+        final ResultSetWrapper rsw = getFirstResultSet(stmt);
+        final List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+        validateResultMapsCount(rsw, resultMaps.size());
+        if (rsw == null) {
+            return new ResultSetSpliterator<E>(null, null, 0);
+        }
+        final ResultMap resultMap = resultMaps.get(0);
+        if (resultMaps.size() != 1 || resultMap.hasNestedResultMaps()) {
+            closeResultSet(rsw.getResultSet());
+            throw new ExecutorException("Mapped Statement '" + mappedStatement.getId()
+                    + "' cannot be streamed because it has nested result mappings or more than one result map.");
+        }
+        final RowWidthSampler sampler = mappedStatement.isStreaming() ? new RowWidthSampler(mappedStatement, rsw.getResultSet()) : null;
+        skipRows(rsw.getResultSet(), rowBounds);
+        final ResultSetSpliterator<E> spliterator = new ResultSetSpliterator<E>(rsw.getResultSet(), new ResultSetSpliterator.RowMapper<E>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public E mapRow(ResultSet rs) throws SQLException {
+                ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rs, resultMap, null);
+                Object rowValue = getRowValue(rsw, discriminatedResultMap);
+                if (sampler != null) {
+                    sampler.sample(rs);
+                }
+                //批量嵌套查询只能按行执行了
+                loadPendingBatches();
+                return (E) rowValue;
+            }
+        }, rowBounds.getLimit());
+        if (sampler != null) {
+            spliterator.onClose(new Runnable() {
+                @Override
+                public void run() {
+                    sampler.finish();
+                }
+            });
+        }
+        return spliterator;
+    }
+
     /**
      * 包装一下结果集
      */
@@ -215,6 +314,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return rs != null ? new ResultSetWrapper(rs, configuration) : null;
     }
 
+    private void finishRowWidthSampling() {
+        if (rowWidthSampler != null) {
+            rowWidthSampler.finish();
+            rowWidthSampler = null;
+        }
+    }
+
     private ResultSetWrapper getNextResultSet(Statement stmt) throws SQLException {
         // Making this method tolerant of bad JDBC drivers
         try {
@@ -244,6 +350,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void cleanUpAfterHandlingResultSet() {
         nestedResultObjects.clear();
         ancestorColumnPrefix.clear();
+        lazyLoaderGroups.clear();
     }
 
     /**
@@ -304,6 +411,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             //如果没有嵌套查询
             handleRowValuesForSimpleResultMap(rsw, resultMap, resultHandler, rowBounds, parentMapping);
         }
+        //整个结果集都处理完了，再批量执行收集到的嵌套查询
+        loadPendingBatches();
     }
 
     private void ensureNoRowBounds() {
@@ -326,6 +435,14 @@ public class DefaultResultSetHandler implements ResultSetHandler {
      */
     private void handleRowValuesForSimpleResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping)
             throws SQLException {
+        //收集成基本类型数组时，单列的结果直接从结果集读，不装箱
+        if (parentMapping == null && resultHandler instanceof PrimitiveArrayResultHandler) {
+            int columnIndex = primitiveColumnIndex(rsw, resultMap, (PrimitiveArrayResultHandler) resultHandler);
+            if (columnIndex > 0) {
+                handlePrimitiveRows(rsw.getResultSet(), columnIndex, (PrimitiveArrayResultHandler) resultHandler, rowBounds);
+                return;
+            }
+        }
         DefaultResultContext resultContext = new DefaultResultContext();
         //定位到RowBounds设置的位置，即分页开始的位置
         skipRows(rsw.getResultSet(), rowBounds);
@@ -334,10 +451,41 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             //如果存在鉴别器 则找到对应的ResultMap
             ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
             Object rowValue = getRowValue(rsw, discriminatedResultMap);
+            if (rowWidthSampler != null) {
+                rowWidthSampler.sample(rsw.getResultSet());
+            }
             storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
         }
     }
 
+    /**
+     * 能直接读的列的位置，和createPrimitiveResultObject取的是同一列；不能直接读时返回-1
+     */
+    private int primitiveColumnIndex(ResultSetWrapper rsw, ResultMap resultMap, PrimitiveArrayResultHandler resultHandler) throws SQLException {
+        if (resultMap.getDiscriminator() != null || !typeHandlerRegistry.hasTypeHandler(resultMap.getType())) {
+            return -1;
+        }
+        final String columnName;
+        if (!resultMap.getResultMappings().isEmpty()) {
+            columnName = resultMap.getResultMappings().get(0).getColumn();
+        } else {
+            columnName = rsw.getColumnNames().get(0);
+        }
+        if (columnName == null || !resultHandler.supports(rsw.getTypeHandler(resultMap.getType(), columnName))) {
+            return -1;
+        }
+        return rsw.getResultSet().findColumn(columnName);
+    }
+
+    private void handlePrimitiveRows(ResultSet rs, int columnIndex, PrimitiveArrayResultHandler resultHandler, RowBounds rowBounds) throws SQLException {
+        skipRows(rs, rowBounds);
+        int count = 0;
+        while (count < rowBounds.getLimit() && rs.next()) {
+            resultHandler.handleRow(rs, columnIndex);
+            count++;
+        }
+    }
+
     private void storeObject(ResultHandler resultHandler, DefaultResultContext resultContext, Object rowValue, ResultMapping parentMapping, ResultSet rs) throws SQLException {
         if (parentMapping != null) {
             linkToParents(rs, parentMapping, rowValue);
@@ -433,7 +581,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 // issue #541 make property optional
                 final String property = propertyMapping.getProperty();
                 // issue #377, call setter on nulls
-                if (value != NO_VALUE && property != null && (value != null || configuration.isCallSettersOnNulls())) {
+                if (value == DEFERED) {
+                    foundValues = true;
+                } else if (value != NO_VALUE && property != null && (value != null || configuration.isCallSettersOnNulls())) {
                     if (value != null || !metaObject.getSetterType(property).isPrimitive()) {
                         metaObject.setValue(property, value);
                     }
@@ -623,7 +773,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             return objectFactory.create(resultType);
         } else if (shouldApplyAutomaticMappings(resultMap, false)) {
             //自动映射
-            return createByConstructorSignature(rsw, resultType, constructorArgTypes, constructorArgs, columnPrefix);
+            return createByConstructorSignature(rsw, resultMap, constructorArgTypes, constructorArgs, columnPrefix);
         }
         throw new ExecutorException("Do not know how to create an instance of " + resultType);
     }
@@ -654,25 +804,39 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return foundValues ? objectFactory.create(resultType, constructorArgTypes, constructorArgs) : null;
     }
 
-    private Object createByConstructorSignature(ResultSetWrapper rsw, Class<?> resultType, List<Class<?>> constructorArgTypes, List<Object> constructorArgs,
+    private Object createByConstructorSignature(ResultSetWrapper rsw, ResultMap resultMap, List<Class<?>> constructorArgTypes, List<Object> constructorArgs,
                                                 String columnPrefix) throws SQLException {
+        final Class<?> resultType = resultMap.getType();
+        //同一个resultMap、同样的列类型找到的构造函数是一样的，找过一次就记在resultMap上
+        final List<String> columnClassNames = rsw.getClassNames();
+        Constructor<?> constructor = resultMap.getAutoMappingConstructor(columnClassNames);
+        if (constructor == null) {
+            constructor = findConstructorByColumnTypes(resultType, columnClassNames);
+            resultMap.putAutoMappingConstructor(columnClassNames, constructor);
+        }
+        final Class<?>[] parameterTypes = constructor.getParameterTypes();
+        final List<String> columnNames = rsw.getColumnNames();
+        boolean foundValues = false;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+            String columnName = columnNames.get(i);
+            TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterType, columnName);
+            Object value = typeHandler.getResult(rsw.getResultSet(), prependPrefix(columnName, columnPrefix));
+            constructorArgTypes.add(parameterType);
+            constructorArgs.add(value);
+            foundValues = value != null || foundValues;
+        }
+        //上面是构造函数创建对象，下面是对象工厂来创建
+        return foundValues ? objectFactory.create(resultType, constructorArgTypes, constructorArgs) : null;
+    }
+
+    private Constructor<?> findConstructorByColumnTypes(Class<?> resultType, List<String> columnClassNames) {
         for (Constructor<?> constructor : resultType.getDeclaredConstructors()) {
-            if (typeNames(constructor.getParameterTypes()).equals(rsw.getClassNames())) {
-                boolean foundValues = false;
-                for (int i = 0; i < constructor.getParameterTypes().length; i++) {
-                    Class<?> parameterType = constructor.getParameterTypes()[i];
-                    String columnName = rsw.getColumnNames().get(i);
-                    TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterType, columnName);
-                    Object value = typeHandler.getResult(rsw.getResultSet(), prependPrefix(columnName, columnPrefix));
-                    constructorArgTypes.add(parameterType);
-                    constructorArgs.add(value);
-                    foundValues = value != null || foundValues;
-                }
-                //上面是构造函数创建对象，下面是对象工厂来创建
-                return foundValues ? objectFactory.create(resultType, constructorArgTypes, constructorArgs) : null;
+            if (typeNames(constructor.getParameterTypes()).equals(columnClassNames)) {
+                return constructor;
             }
         }
-        throw new ExecutorException("No constructor found in " + resultType.getName() + " matching " + rsw.getClassNames());
+        throw new ExecutorException("No constructor found in " + resultType.getName() + " matching " + columnClassNames);
     }
 
     private List<String> typeNames(Class<?>[] parameterTypes) {
@@ -739,12 +903,16 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             if (executor.isCached(nestedQuery, key)) {
                 //如果已经有一级缓存了，则延迟加载(实际上deferLoad方法中可以看到则是立即加载)
                 executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
+            } else if (isBatchLoadable(propertyMapping)) {
+                //先记下key，等结果集处理完后用IN查询一次加载
+                addPendingBatchLoad(nestedQuery, metaResultObject, propertyMapping, nestedQueryParameterObject);
+                value = DEFERED;
             } else {
                 //否则lazyLoader.addLoader 需要延迟加载则addLoader
                 //或者ResultLoader.loadResult 不需要延迟加载则立即加载
                 final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
                 if (propertyMapping.isLazy()) {
-                    lazyLoader.addLoader(property, metaResultObject, resultLoader);
+                    lazyLoader.addLoader(property, metaResultObject, resultLoader, getLazyLoaderGroup(propertyMapping));
                 } else {
                     value = resultLoader.loadResult();
                 }
@@ -753,6 +921,110 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return value;
     }
 
+    //
+    // BATCHED NESTED QUERY
+    //
+
+    /**
+     * 只有非懒加载并且结果是收集到list里的时候才批量加载，
+     * 自定义ResultHandler在处理每一行时就要拿到完整的对象
+     */
+    private boolean isBatchLoadable(ResultMapping propertyMapping) {
+        return propertyMapping.getBatchSize() > 0 && !propertyMapping.isLazy() && resultHandler == null;
+    }
+
+    /**
+     * 延迟加载的批量组，aggressiveLazyLoading时访问任何方法都会加载全部属性，批量就没有意义了
+     */
+    private ResultLoaderGroup getLazyLoaderGroup(ResultMapping propertyMapping) {
+        if (propertyMapping.getBatchSize() <= 0 || configuration.isAggressiveLazyLoading()) {
+            return null;
+        }
+        final MappingKey mappingKey = new MappingKey(propertyMapping);
+        ResultLoaderGroup group = lazyLoaderGroups.get(mappingKey);
+        if (group == null) {
+            group = new ResultLoaderGroup(configuration, propertyMapping.getBatchKey(), propertyMapping.getBatchSize());
+            lazyLoaderGroups.put(mappingKey, group);
+        }
+        return group;
+    }
+
+    private void addPendingBatchLoad(MappedStatement nestedQuery, MetaObject metaResultObject, ResultMapping propertyMapping, Object key) {
+        final MappingKey mappingKey = new MappingKey(propertyMapping);
+        PendingBatchLoad batchLoad = pendingBatchLoads.get(mappingKey);
+        if (batchLoad == null) {
+            batchLoad = new PendingBatchLoad();
+            batchLoad.nestedQuery = nestedQuery;
+            pendingBatchLoads.put(mappingKey, batchLoad);
+        }
+        final String keyString = String.valueOf(key);
+        List<MetaObject> parents = batchLoad.parents.get(keyString);
+        if (parents == null) {
+            parents = new ArrayList<MetaObject>();
+            batchLoad.parents.put(keyString, parents);
+            batchLoad.keys.put(keyString, key);
+        }
+        parents.add(metaResultObject);
+    }
+
+    /**
+     * 把收集到的key按batchSize分块，每块执行一次嵌套查询，
+     * 再根据子对象的batchKey属性分配给父对象，N+1次查询变为ceil(N/batchSize)+1次
+     */
+    private void loadPendingBatches() throws SQLException {
+        if (pendingBatchLoads.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<MappingKey, PendingBatchLoad> entry : pendingBatchLoads.entrySet()) {
+            final ResultMapping propertyMapping = entry.getKey().mapping;
+            final PendingBatchLoad batchLoad = entry.getValue();
+            //集合属性先初始化，没有子对象的父对象也得到空集合，和逐行加载的结果一致
+            for (List<MetaObject> parents : batchLoad.parents.values()) {
+                for (MetaObject parent : parents) {
+                    instantiateCollectionPropertyIfAppropriate(propertyMapping, parent);
+                }
+            }
+            final List<Object> keys = new ArrayList<Object>(batchLoad.keys.values());
+            final int batchSize = propertyMapping.getBatchSize();
+            for (int i = 0; i < keys.size(); i += batchSize) {
+                final List<Object> chunk = new ArrayList<Object>(keys.subList(i, Math.min(i + batchSize, keys.size())));
+                final List<Object> children = executor.query(batchLoad.nestedQuery, wrapBatchKeys(chunk), RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+                for (Object child : children) {
+                    if (child != null) {
+                        linkBatchedChild(propertyMapping, batchLoad, child);
+                    }
+                }
+            }
+        }
+        pendingBatchLoads.clear();
+    }
+
+    //和DefaultSqlSession一样，用list/collection作为参数名，嵌套查询里用<foreach collection="list">
+    private Object wrapBatchKeys(List<Object> keys) {
+        final DefaultSqlSession.StrictMap<Object> map = new DefaultSqlSession.StrictMap<Object>();
+        map.put("collection", keys);
+        map.put("list", keys);
+        return map;
+    }
+
+    private void linkBatchedChild(ResultMapping propertyMapping, PendingBatchLoad batchLoad, Object child) {
+        final MetaObject metaChild = configuration.newMetaObject(child);
+        final Object childKey = metaChild.getValue(propertyMapping.getBatchKey());
+        final List<MetaObject> parents = batchLoad.parents.get(String.valueOf(childKey));
+        if (parents == null) {
+            return;
+        }
+        for (MetaObject parent : parents) {
+            final Object collectionProperty = instantiateCollectionPropertyIfAppropriate(propertyMapping, parent);
+            if (collectionProperty != null) {
+                final MetaObject targetMetaObject = configuration.newMetaObject(collectionProperty);
+                targetMetaObject.add(child);
+            } else {
+                parent.setValue(propertyMapping.getProperty(), child);
+            }
+        }
+    }
+
     private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
         if (resultMapping.isCompositeResult()) {
             return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -850,13 +1122,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void handleRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         final DefaultResultContext resultContext = new DefaultResultContext();
         skipRows(rsw.getResultSet(), rowBounds);
+        //结果按父对象的id排好序时，换了父对象前面的就不会再出现了，可以交出去并释放，内存里只留当前这一组
+        final boolean resultOrdered = mappedStatement.isResultOrdered() || (parentMapping == null && isOrderedByIdColumns(resultMap));
         Object rowValue = null;
         while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
             final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
-            final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
+            final RowKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
             Object partialObject = nestedResultObjects.get(rowKey);
             // issue #577 && #542
-            if (mappedStatement.isResultOrdered()) {
+            if (resultOrdered) {
                 if (partialObject == null && rowValue != null) {
                     nestedResultObjects.clear();
                     storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
@@ -868,8 +1142,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                     storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
                 }
             }
+            if (rowWidthSampler != null) {
+                rowWidthSampler.sample(rsw.getResultSet());
+            }
         }
-        if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+        if (rowValue != null && resultOrdered && shouldProcessMoreRows(resultContext, rowBounds)) {
             storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
         }
     }
@@ -878,7 +1155,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // GET VALUE FROM ROW FOR NESTED RESULT MAP
     //
 
-    private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap, CacheKey combinedKey, CacheKey absoluteKey, String columnPrefix, Object partialObject) throws SQLException {
+    private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap, RowKey combinedKey, RowKey absoluteKey, String columnPrefix, Object partialObject) throws SQLException {
         final String resultMapId = resultMap.getId();
         Object resultObject = partialObject;
         if (resultObject != null) {
@@ -902,14 +1179,14 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 foundValues = lazyLoader.size() > 0 || foundValues;
                 resultObject = foundValues ? resultObject : null;
             }
-            if (combinedKey != CacheKey.NULL_CACHE_KEY) {
+            if (combinedKey != RowKey.NULL_ROW_KEY) {
                 nestedResultObjects.put(combinedKey, resultObject);
             }
         }
         return resultObject;
     }
 
-    private void putAncestor(CacheKey rowKey, Object resultObject, String resultMapId, String columnPrefix) {
+    private void putAncestor(RowKey rowKey, Object resultObject, String resultMapId, String columnPrefix) {
         if (!ancestorColumnPrefix.containsKey(resultMapId)) {
             ancestorColumnPrefix.put(resultMapId, columnPrefix);
         }
@@ -920,7 +1197,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // NESTED RESULT MAP (JOIN MAPPING)
     //
 
-    private boolean applyNestedResultMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String parentPrefix, CacheKey parentRowKey, boolean newObject) {
+    private boolean applyNestedResultMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String parentPrefix, RowKey parentRowKey, boolean newObject) {
         boolean foundValues = false;
         for (ResultMapping resultMapping : resultMap.getPropertyResultMappings()) {
             final String nestedResultMapId = resultMapping.getNestedResultMapId();
@@ -928,7 +1205,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 try {
                     final String columnPrefix = getColumnPrefix(parentPrefix, resultMapping);
                     final ResultMap nestedResultMap = getNestedResultMap(rsw.getResultSet(), nestedResultMapId, columnPrefix);
-                    CacheKey rowKey = null;
+                    RowKey rowKey = null;
                     Object ancestorObject = null;
                     if (ancestorColumnPrefix.containsKey(nestedResultMapId)) {
                         rowKey = createRowKey(nestedResultMap, rsw, ancestorColumnPrefix.get(nestedResultMapId));
@@ -940,7 +1217,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                         }
                     } else {
                         rowKey = createRowKey(nestedResultMap, rsw, columnPrefix);
-                        final CacheKey combinedKey = combineKeys(rowKey, parentRowKey);
+                        final RowKey combinedKey = RowKey.combine(rowKey, parentRowKey);
                         Object rowValue = nestedResultObjects.get(combinedKey);
                         boolean knownValue = (rowValue != null);
                         final Object collectionProperty = instantiateCollectionPropertyIfAppropriate(resultMapping, metaObject);
@@ -1001,34 +1278,22 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // UNIQUE RESULT KEY
     //
 
-    private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
-        final CacheKey cacheKey = new CacheKey();
-        cacheKey.update(resultMap.getId());
+    /**
+     * 按resultMap的id列(没有id列时用所有属性列)的值生成RowKey，列值按位置放，没值的位置为null
+     */
+    private RowKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
+        rowKeyValues.clear();
         List<ResultMapping> resultMappings = getResultMappingsForRowKey(resultMap);
         if (resultMappings.size() == 0) {
             if (Map.class.isAssignableFrom(resultMap.getType())) {
-                createRowKeyForMap(rsw, cacheKey);
+                createRowKeyForMap(rsw);
             } else {
-                createRowKeyForUnmappedProperties(resultMap, rsw, cacheKey, columnPrefix);
+                createRowKeyForUnmappedProperties(resultMap, rsw, columnPrefix);
             }
         } else {
-            createRowKeyForMappedProperties(resultMap, rsw, cacheKey, resultMappings, columnPrefix);
-        }
-        return cacheKey;
-    }
-
-    private CacheKey combineKeys(CacheKey rowKey, CacheKey parentRowKey) {
-        if (rowKey.getUpdateCount() > 1 && parentRowKey.getUpdateCount() > 1) {
-            CacheKey combinedKey;
-            try {
-                combinedKey = rowKey.clone();
-            } catch (CloneNotSupportedException e) {
-                throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
-            }
-            combinedKey.update(parentRowKey);
-            return combinedKey;
+            createRowKeyForMappedProperties(resultMap, rsw, resultMappings, columnPrefix);
         }
-        return CacheKey.NULL_CACHE_KEY;
+        return RowKey.of(resultMap.getId(), columnPrefix, rowKeyValues.toArray());
     }
 
     private List<ResultMapping> getResultMappingsForRowKey(ResultMap resultMap) {
@@ -1039,30 +1304,29 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return resultMappings;
     }
 
-    private void createRowKeyForMappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, List<ResultMapping> resultMappings, String columnPrefix) throws SQLException {
+    private void createRowKeyForMappedProperties(ResultMap resultMap, ResultSetWrapper rsw, List<ResultMapping> resultMappings, String columnPrefix) throws SQLException {
+        List<String> mappedColumnNames = null;
         for (ResultMapping resultMapping : resultMappings) {
             if (resultMapping.getNestedResultMapId() != null && resultMapping.getResultSet() == null) {
                 // Issue #392
                 final ResultMap nestedResultMap = configuration.getResultMap(resultMapping.getNestedResultMapId());
-                createRowKeyForMappedProperties(nestedResultMap, rsw, cacheKey, nestedResultMap.getConstructorResultMappings(),
+                createRowKeyForMappedProperties(nestedResultMap, rsw, nestedResultMap.getConstructorResultMappings(),
                         prependPrefix(resultMapping.getColumnPrefix(), columnPrefix));
             } else if (resultMapping.getNestedQueryId() == null) {
                 final String column = prependPrefix(resultMapping.getColumn(), columnPrefix);
-                final TypeHandler<?> th = resultMapping.getTypeHandler();
-                List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+                if (mappedColumnNames == null) {
+                    mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+                }
                 // Issue #114
                 if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
-                    final Object value = th.getResult(rsw.getResultSet(), column);
-                    if (value != null) {
-                        cacheKey.update(column);
-                        cacheKey.update(value);
-                    }
+                    final TypeHandler<?> th = resultMapping.getTypeHandler();
+                    rowKeyValues.add(th.getResult(rsw.getResultSet(), column));
                 }
             }
         }
     }
 
-    private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, String columnPrefix) throws SQLException {
+    private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
         final MetaClass metaType = MetaClass.forClass(resultMap.getType());
         List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
         for (String column : unmappedColumnNames) {
@@ -1076,24 +1340,93 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 }
             }
             if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
-                String value = rsw.getResultSet().getString(column);
-                if (value != null) {
-                    cacheKey.update(column);
-                    cacheKey.update(value);
-                }
+                rowKeyValues.add(rsw.getResultSet().getString(column));
             }
         }
     }
 
-    private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
+    private void createRowKeyForMap(ResultSetWrapper rsw) throws SQLException {
         List<String> columnNames = rsw.getColumnNames();
         for (String columnName : columnNames) {
-            final String value = rsw.getResultSet().getString(columnName);
-            if (value != null) {
-                cacheKey.update(columnName);
-                cacheKey.update(value);
+            rowKeyValues.add(rsw.getResultSet().getString(columnName));
+        }
+    }
+
+    /**
+     * SQL最外层的ORDER BY是否以resultMap的id列开头(不分先后)，是的话同一个父对象的行一定是连在一起的
+     * 只认不带表别名的列名，带别名的可能是别的表的同名列；有鉴别器或者没有显式id列的不算
+     */
+    private boolean isOrderedByIdColumns(ResultMap resultMap) {
+        if (resultMap.getDiscriminator() != null) {
+            return false;
+        }
+        final Set<String> idColumns = new HashSet<String>();
+        for (ResultMapping resultMapping : resultMap.getIdResultMappings()) {
+            if (!resultMapping.getFlags().contains(ResultFlag.ID) || resultMapping.getColumn() == null
+                    || resultMapping.getNestedResultMapId() != null || resultMapping.getNestedQueryId() != null) {
+                return false;
+            }
+            idColumns.add(resultMapping.getColumn().toUpperCase(Locale.ENGLISH));
+        }
+        if (idColumns.isEmpty()) {
+            return false;
+        }
+        final List<String> orderByColumns = getTopLevelOrderByColumns(boundSql.getSql());
+        if (orderByColumns.size() < idColumns.size()) {
+            return false;
+        }
+        return idColumns.equals(new HashSet<String>(orderByColumns.subList(0, idColumns.size())));
+    }
+
+    //最外层ORDER BY里的各项，遇到不是简单列名的项就停止
+    private static List<String> getTopLevelOrderByColumns(String sql) {
+        //括号和引号里的内容换成空格，括号本身换成#(带括号的项不是简单列名)，剩下的就是最外层
+        final char[] chars = sql.toUpperCase(Locale.ENGLISH).toCharArray();
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                chars[i] = ' ';
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+                chars[i] = ' ';
+            } else if (c == '(') {
+                depth++;
+                chars[i] = '#';
+            } else if (c == ')') {
+                depth--;
+                chars[i] = '#';
+            } else if (depth > 0) {
+                chars[i] = ' ';
+            }
+        }
+        final String topLevel = new String(chars);
+        final Matcher orderBy = ORDER_BY_PATTERN.matcher(topLevel);
+        int start = -1;
+        while (orderBy.find()) {
+            start = orderBy.end();
+        }
+        final List<String> columns = new ArrayList<String>();
+        if (start < 0) {
+            return columns;
+        }
+        String clause = topLevel.substring(start);
+        final Matcher end = ORDER_BY_END_PATTERN.matcher(clause);
+        if (end.find()) {
+            clause = clause.substring(0, end.start());
+        }
+        for (String item : clause.split(",")) {
+            final Matcher column = ORDER_BY_ITEM_PATTERN.matcher(item);
+            if (!column.matches()) {
+                break;
             }
+            columns.add(column.group(1));
         }
+        return columns;
     }
 
 }
@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.executor.resultset;
 
+import org.apache.ibatis.executor.ExecutorException;
+
 import java.sql.CallableStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -28,6 +30,11 @@ public interface ResultSetHandler {
     //执行完操作返回的Statement
     <E> List<E> handleResultSets(Statement stmt) throws SQLException;
 
+    //以Stream的方式逐行处理结果集，自己实现的结果集处理器默认不支持
+    default <E> ResultSetSpliterator<E> handleResultSetsStream(Statement stmt) throws SQLException {
+        throw new ExecutorException("ResultSetHandler " + getClass().getName() + " does not support streaming queries.");
+    }
+
     //处理存储过程输出参数
     void handleOutputParameters(CallableStatement cs) throws SQLException;
 
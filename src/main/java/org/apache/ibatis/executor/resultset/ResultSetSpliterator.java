@@ -0,0 +1,150 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import org.apache.ibatis.exceptions.ExceptionFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 逐行读取结果集的Spliterator，Stream每要一个元素才映射一行
+ * 读完或者Stream关闭时关闭结果集，再执行注册的关闭动作(比如关闭Statement)。
+ * 并行流拆分时由AbstractSpliterator按批次读出来交给别的线程，结果集本身始终只被一个线程读。
+ */
+public class ResultSetSpliterator<E> extends Spliterators.AbstractSpliterator<E> {
+
+    /**
+     * 映射当前行
+     */
+    public interface RowMapper<E> {
+        E mapRow(ResultSet rs) throws SQLException;
+    }
+
+    private final ResultSet rs;
+    private final RowMapper<E> rowMapper;
+    //还能读多少行(RowBounds.limit)
+    private int remaining;
+    private final List<Runnable> closeActions = new ArrayList<Runnable>();
+    private boolean closed;
+
+    public ResultSetSpliterator(ResultSet rs, RowMapper<E> rowMapper, int limit) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.rs = rs;
+        this.rowMapper = rowMapper;
+        this.remaining = limit;
+        if (rs == null) {
+            closed = true;
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (closed) {
+            return false;
+        }
+        E row;
+        try {
+            if (remaining <= 0 || !rs.next()) {
+                close();
+                return false;
+            }
+            remaining--;
+            row = rowMapper.mapRow(rs);
+        } catch (SQLException e) {
+            close();
+            throw ExceptionFactory.wrapException("Error fetching the next row of a stream.  Cause: " + e, e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        action.accept(row);
+        return true;
+    }
+
+    /**
+     * 关闭结果集时要做的其他事情，已经关闭时立即执行
+     */
+    public void onClose(Runnable closeAction) {
+        if (closed) {
+            closeAction.run();
+        } else {
+            closeActions.add(closeAction);
+        }
+    }
+
+    public void close() {
+        if (closed && closeActions.isEmpty()) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            // ignore
+        } finally {
+            for (Runnable closeAction : closeActions) {
+                closeAction.run();
+            }
+            closeActions.clear();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 取消正在执行的读取，可以在别的线程调用(Statement.cancel)
+     * 读取的线程会收到SQLException，之后照常关闭
+     */
+    public void cancel() {
+        if (rs == null) {
+            return;
+        }
+        try {
+            Statement statement = rs.getStatement();
+            if (statement != null) {
+                statement.cancel();
+            }
+        } catch (SQLException e) {
+            // ignore 驱动不支持取消或者已经关闭了
+        }
+    }
+
+    /**
+     * 包成Stream，Stream.close()时关闭结果集
+     */
+    public Stream<E> stream() {
+        return StreamSupport.stream(this, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.util.Arrays;
+
+/**
+ * 嵌套结果映射里标识一行对象的key
+ * 和CacheKey相比不存列名(同一个resultMap和列前缀下列的顺序是固定的，按位置比较，没值的位置为null)，
+ * 组合父对象的key时直接引用父key，不用复制，hashCode创建时就算好
+ */
+final class RowKey {
+
+    //没有任何列有值，不能用来区分对象
+    static final RowKey NULL_ROW_KEY = new RowKey(null, null, new Object[0], null, 0);
+
+    private final String resultMapId;
+    private final String columnPrefix;
+    private final Object[] values;
+    private final RowKey parent;
+    //有值的列的个数，包括父key的
+    private final int valueCount;
+    private final int hashCode;
+
+    private RowKey(String resultMapId, String columnPrefix, Object[] values, RowKey parent, int valueCount) {
+        this.resultMapId = resultMapId;
+        this.columnPrefix = columnPrefix;
+        this.values = values;
+        this.parent = parent;
+        this.valueCount = valueCount;
+        int hash = resultMapId == null ? 0 : resultMapId.hashCode();
+        hash = 31 * hash + (columnPrefix == null ? 0 : columnPrefix.hashCode());
+        hash = 31 * hash + Arrays.hashCode(values);
+        hash = 31 * hash + (parent == null ? 0 : parent.hashCode);
+        this.hashCode = hash;
+    }
+
+    static RowKey of(String resultMapId, String columnPrefix, Object[] values) {
+        int valueCount = 0;
+        for (Object value : values) {
+            if (value != null) {
+                valueCount++;
+            }
+        }
+        return new RowKey(resultMapId, columnPrefix, values, null, valueCount);
+    }
+
+    /**
+     * 和父对象的key组合，两个key都要有值，否则返回NULL_ROW_KEY
+     */
+    static RowKey combine(RowKey rowKey, RowKey parentRowKey) {
+        if (rowKey.hasValues() && parentRowKey.hasValues()) {
+            return new RowKey(rowKey.resultMapId, rowKey.columnPrefix, rowKey.values, parentRowKey, rowKey.valueCount + parentRowKey.valueCount);
+        }
+        return NULL_ROW_KEY;
+    }
+
+    boolean hasValues() {
+        return valueCount > 0;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof RowKey)) {
+            return false;
+        }
+        RowKey that = (RowKey) object;
+        if (hashCode != that.hashCode || valueCount != that.valueCount) {
+            return false;
+        }
+        if (resultMapId == null ? that.resultMapId != null : !resultMapId.equals(that.resultMapId)) {
+            return false;
+        }
+        if (columnPrefix == null ? that.columnPrefix != null : !columnPrefix.equals(that.columnPrefix)) {
+            return false;
+        }
+        if (!Arrays.equals(values, that.values)) {
+            return false;
+        }
+        return parent == null ? that.parent == null : parent.equals(that.parent);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return resultMapId + ":" + Arrays.toString(values) + (parent == null ? "" : " <- " + parent);
+    }
+
+}
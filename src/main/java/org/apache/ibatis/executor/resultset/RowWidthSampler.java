@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import org.apache.ibatis.mapping.MappedStatement;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * 流式读取时采样前几行实际数据的大小，估算平均行宽，MappedStatement据此调整下次执行的fetchSize
+ * 在一行映射完之后再读列的值，类型处理器还是按顺序第一次读列；
+ * LOB和LONG类型的列可能是流，不能读第二次，仍按上限计算
+ */
+class RowWidthSampler {
+
+    //采样的行数
+    private static final int SAMPLE_ROWS = 32;
+    //不读取的列，以及读不到大小的列，单列最多算多少字节
+    private static final int MAX_COLUMN_WIDTH = 4096;
+    //数字、日期之类定长的值算多少字节
+    private static final int FIXED_VALUE_WIDTH = 16;
+
+    private final MappedStatement mappedStatement;
+    //是否读取这一列的值，下标从0开始
+    private final boolean[] readable;
+    private int rows;
+    private long bytes;
+    private boolean recorded;
+
+    RowWidthSampler(MappedStatement mappedStatement, ResultSet rs) throws SQLException {
+        this.mappedStatement = mappedStatement;
+        final ResultSetMetaData metaData = rs.getMetaData();
+        this.readable = new boolean[metaData.getColumnCount()];
+        for (int i = 0; i < readable.length; i++) {
+            readable[i] = !isStreamType(metaData.getColumnType(i + 1));
+        }
+    }
+
+    /**
+     * 当前行已经映射完之后调用，够数了就记到MappedStatement里
+     */
+    void sample(ResultSet rs) throws SQLException {
+        if (recorded) {
+            return;
+        }
+        for (int i = 0; i < readable.length; i++) {
+            bytes += readable[i] ? widthOf(rs.getObject(i + 1)) : MAX_COLUMN_WIDTH;
+        }
+        rows++;
+        if (rows >= SAMPLE_ROWS) {
+            finish();
+        }
+    }
+
+    /**
+     * 结果集读完或者关闭时调用，不满采样行数的也按已经采到的记
+     */
+    void finish() {
+        if (!recorded && rows > 0) {
+            recorded = true;
+            mappedStatement.recordRowWidth((int) Math.min(Integer.MAX_VALUE, bytes / rows));
+        }
+    }
+
+    private static int widthOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        //内存里String按char算，两个字节一个
+        if (value instanceof String) {
+            return Math.min(MAX_COLUMN_WIDTH, ((String) value).length() * 2);
+        }
+        if (value instanceof byte[]) {
+            return Math.min(MAX_COLUMN_WIDTH, ((byte[]) value).length);
+        }
+        return FIXED_VALUE_WIDTH;
+    }
+
+    private static boolean isStreamType(int sqlType) {
+        switch (sqlType) {
+            case Types.BLOB:
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.LONGVARBINARY:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.SQLXML:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+}
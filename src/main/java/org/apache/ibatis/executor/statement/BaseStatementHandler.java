@@ -38,6 +38,11 @@ import java.sql.Statement;
  */
 public abstract class BaseStatementHandler implements StatementHandler {
 
+    //流式读取还没有记录过声明的行宽时假设的行宽(字节)
+    private static final int DEFAULT_STREAMING_ROW_WIDTH = 512;
+    private static final int MIN_STREAMING_FETCH_SIZE = 10;
+    private static final int MAX_STREAMING_FETCH_SIZE = 10000;
+
     protected final Configuration configuration;
     //对象工厂
     protected final ObjectFactory objectFactory;
@@ -126,11 +131,15 @@ public abstract class BaseStatementHandler implements StatementHandler {
     protected void setStatementTimeout(Statement stmt) throws SQLException {
         //如果配置的时候有设置超时，没有就设置为默认的
         Integer timeout = mappedStatement.getTimeout();
-        Integer defaultTimeout = configuration.getDefaultStatementTimeout();
+        if (timeout == null) {
+            timeout = configuration.getDefaultStatementTimeout();
+        }
+        //自适应超时：按最近耗时收紧，但不会超过配置的超时
+        if (mappedStatement.isAdaptiveTimeout() && mappedStatement.getHealth() != null) {
+            timeout = mappedStatement.getHealth().adaptTimeout(timeout, configuration);
+        }
         if (timeout != null) {
             stmt.setQueryTimeout(timeout);
-        } else if (defaultTimeout != null) {
-            stmt.setQueryTimeout(defaultTimeout);
         }
     }
 
@@ -142,11 +151,26 @@ public abstract class BaseStatementHandler implements StatementHandler {
      */
     protected void setFetchSize(Statement stmt) throws SQLException {
         Integer fetchSize = mappedStatement.getFetchSize();
+        if (fetchSize == null && mappedStatement.isStreaming()) {
+            fetchSize = streamingFetchSize();
+        }
         if (fetchSize != null) {
             stmt.setFetchSize(fetchSize);
         }
     }
 
+    /**
+     * 流式读取的fetchSize = 内存预算 / 之前执行时采样到的平均行宽
+     */
+    protected int streamingFetchSize() {
+        int rowWidth = mappedStatement.getRowWidth();
+        if (rowWidth <= 0) {
+            rowWidth = DEFAULT_STREAMING_ROW_WIDTH;
+        }
+        int fetchSize = configuration.getStreamingMemoryBudget() / rowWidth;
+        return Math.max(MIN_STREAMING_FETCH_SIZE, Math.min(MAX_STREAMING_FETCH_SIZE, fetchSize));
+    }
+
     //关闭语句
     protected void closeStatement(Statement statement) {
         try {
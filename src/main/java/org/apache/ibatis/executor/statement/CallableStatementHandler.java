@@ -18,6 +18,7 @@ package org.apache.ibatis.executor.statement;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
@@ -73,6 +74,14 @@ public class CallableStatementHandler extends BaseStatementHandler {
     return resultList;
   }
 
+  //输出参数要等结果集读完才能取，Stream方式下不处理
+  @Override
+  public <E> ResultSetSpliterator<E> queryStream(Statement statement) throws SQLException {
+    CallableStatement cs = (CallableStatement) statement;
+    cs.execute();
+    return resultSetHandler.<E>handleResultSetsStream(cs);
+  }
+
   @Override
   protected Statement instantiateStatement(Connection connection) throws SQLException {
     //调用Connection.prepareCall
@@ -18,6 +18,7 @@ package org.apache.ibatis.executor.statement;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.ResultHandler;
@@ -73,6 +74,13 @@ public class PreparedStatementHandler extends BaseStatementHandler {
         return resultSetHandler.<E>handleResultSets(ps);
     }
 
+    @Override
+    public <E> ResultSetSpliterator<E> queryStream(Statement statement) throws SQLException {
+        PreparedStatement ps = (PreparedStatement) statement;
+        ps.execute();
+        return resultSetHandler.<E>handleResultSetsStream(ps);
+    }
+
     @Override
     protected Statement instantiateStatement(Connection connection) throws SQLException {
         //调用Connection.prepareStatement
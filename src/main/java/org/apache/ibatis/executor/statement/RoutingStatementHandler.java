@@ -18,6 +18,7 @@ package org.apache.ibatis.executor.statement;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.ResultHandler;
@@ -80,6 +81,11 @@ public class RoutingStatementHandler implements StatementHandler {
     return delegate.<E>query(statement, resultHandler);
   }
 
+  @Override
+  public <E> ResultSetSpliterator<E> queryStream(Statement statement) throws SQLException {
+    return delegate.<E>queryStream(statement);
+  }
+
   @Override
   public BoundSql getBoundSql() {
     return delegate.getBoundSql();
@@ -19,6 +19,7 @@ import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.ResultHandler;
@@ -82,6 +83,12 @@ public class SimpleStatementHandler extends BaseStatementHandler {
     return resultSetHandler.<E>handleResultSets(statement);
   }
 
+  @Override
+  public <E> ResultSetSpliterator<E> queryStream(Statement statement) throws SQLException {
+    statement.execute(boundSql.getSql());
+    return resultSetHandler.<E>handleResultSetsStream(statement);
+  }
+
   @Override
   protected Statement instantiateStatement(Connection connection) throws SQLException {
     //调用Connection.createStatement
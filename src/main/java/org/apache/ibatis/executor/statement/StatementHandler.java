@@ -15,7 +15,9 @@
  */
 package org.apache.ibatis.executor.statement;
 
+import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.session.ResultHandler;
 
@@ -57,6 +59,14 @@ public interface StatementHandler {
     <E> List<E> query(Statement statement, ResultHandler resultHandler)
             throws SQLException;
 
+    /**
+     * select-->结果以Stream的方式逐行读取，自己实现的语句处理器默认不支持
+     */
+    default <E> ResultSetSpliterator<E> queryStream(Statement statement)
+            throws SQLException {
+        throw new ExecutorException("StatementHandler " + getClass().getName() + " does not support streaming queries.");
+    }
+
     /**
      * 得到绑定sql
      */
@@ -57,6 +57,20 @@ public class BoundSql {
         return parameterObject;
     }
 
+    /**
+     * 用改写后的SQL(比如加上分页)生成新的BoundSql，参数对象和附加参数原样带过去
+     */
+    public BoundSql rewrite(Configuration configuration, String sql, List<ParameterMapping> parameterMappings) {
+        BoundSql boundSql = new BoundSql(configuration, sql, parameterMappings, parameterObject);
+        boundSql.additionalParameters.putAll(additionalParameters);
+        return boundSql;
+    }
+
+    //动态SQL才会有附加参数
+    public boolean hasAdditionalParameters() {
+        return !additionalParameters.isEmpty();
+    }
+
     public boolean hasAdditionalParameter(String name) {
         return metaParameters.hasGetter(name);
     }
@@ -16,23 +16,32 @@
 package org.apache.ibatis.mapping;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.executor.StatementHealth;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.defaults.ParameterBindingPlan;
 import org.apache.ibatis.session.Configuration;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 映射的语句,每一个mapper.xml中的方法对应一个MappedStatement
  */
 public final class MappedStatement {
 
+    //每条语句最多缓存几种参数类型的绑定计划
+    private static final int MAX_PARAMETER_BINDING_PLANS = 8;
+
     private String resource; //对应加载的xml文件全路径
     private Configuration configuration;
     private String id;//namespace+定义的id
@@ -68,6 +77,26 @@ public final class MappedStatement {
     private Log statementLog;
     private LanguageDriver lang;
     private String[] resultSets;
+    //流式读取：只向前只读的结果集，按内存预算自动调整fetchSize，不走缓存
+    private boolean streaming;
+    //流式读取时按结果集元数据声明的列宽算出的行宽(字节)，用来计算fetchSize
+    private volatile int rowWidth;
+    //配置了读写分离时，这条select是否可以走从库
+    private boolean useReplica = true;
+    //分库查询合并结果时的排序，比如 "createTime desc, id"
+    private String shardOrderBy;
+    //按最近耗时的分位数自动收紧超时
+    private boolean adaptiveTimeout;
+    //失败率或慢调用超过阈值时熔断
+    private boolean circuitBreaker;
+    //并发的相同查询合并成一次，其他会话拿结果列表的副本，列表里的对象是共享的，只能当只读的用
+    private boolean coalesce;
+    //结果映射里(包括嵌套结果映射里)有没有嵌套查询，第一次用到时才算，这时resultMap都解析完了
+    private volatile Boolean hasNestedQueries;
+    //耗时和熔断状态，两者都没开启时为null
+    private StatementHealth health;
+    //参数绑定计划，按参数类型各存一个，静态SQL每次的参数映射都一样，可以直接复用
+    private final Map<Class<?>, ParameterBindingPlan> parameterBindingPlans = new ConcurrentHashMap<Class<?>, ParameterBindingPlan>();
 
     MappedStatement() {
         // constructor disabled
@@ -190,6 +219,36 @@ public final class MappedStatement {
             return this;
         }
 
+        public Builder streaming(boolean streaming) {
+            mappedStatement.streaming = streaming;
+            return this;
+        }
+
+        public Builder useReplica(boolean useReplica) {
+            mappedStatement.useReplica = useReplica;
+            return this;
+        }
+
+        public Builder shardOrderBy(String shardOrderBy) {
+            mappedStatement.shardOrderBy = shardOrderBy;
+            return this;
+        }
+
+        public Builder adaptiveTimeout(boolean adaptiveTimeout) {
+            mappedStatement.adaptiveTimeout = adaptiveTimeout;
+            return this;
+        }
+
+        public Builder circuitBreaker(boolean circuitBreaker) {
+            mappedStatement.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public Builder coalesce(boolean coalesce) {
+            mappedStatement.coalesce = coalesce;
+            return this;
+        }
+
         public MappedStatement build() {
             //确保这些关键的属性不能为空
             assert mappedStatement.configuration != null;
@@ -197,6 +256,13 @@ public final class MappedStatement {
             assert mappedStatement.sqlSource != null;
             assert mappedStatement.lang != null;
             mappedStatement.resultMaps = Collections.unmodifiableList(mappedStatement.resultMaps);
+            if (mappedStatement.adaptiveTimeout || mappedStatement.circuitBreaker) {
+                mappedStatement.health = new StatementHealth();
+            }
+            //流式读取没有指定结果集类型时用只向前的结果集
+            if (mappedStatement.streaming && mappedStatement.resultSetType == null) {
+                mappedStatement.resultSetType = ResultSetType.FORWARD_ONLY;
+            }
             return mappedStatement;
         }
     }
@@ -225,6 +291,42 @@ public final class MappedStatement {
         return hasNestedResultMaps;
     }
 
+    public boolean hasNestedQueries() {
+        Boolean result = hasNestedQueries;
+        if (result == null) {
+            result = hasNestedQueries(resultMaps, new HashSet<String>());
+            hasNestedQueries = result;
+        }
+        return result;
+    }
+
+    private boolean hasNestedQueries(List<ResultMap> maps, Set<String> visited) {
+        for (ResultMap resultMap : maps) {
+            if (resultMap.hasNestedQueries()) {
+                return true;
+            }
+            List<ResultMap> nestedResultMaps = new ArrayList<ResultMap>();
+            for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+                addResultMap(resultMapping.getNestedResultMapId(), nestedResultMaps, visited);
+            }
+            if (resultMap.getDiscriminator() != null) {
+                for (String discriminatedResultMapId : resultMap.getDiscriminator().getDiscriminatorMap().values()) {
+                    addResultMap(discriminatedResultMapId, nestedResultMaps, visited);
+                }
+            }
+            if (!nestedResultMaps.isEmpty() && hasNestedQueries(nestedResultMaps, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addResultMap(String resultMapId, List<ResultMap> resultMaps, Set<String> visited) {
+        if (resultMapId != null && visited.add(resultMapId) && configuration.hasResultMap(resultMapId)) {
+            resultMaps.add(configuration.getResultMap(resultMapId));
+        }
+    }
+
     public Integer getFetchSize() {
         return fetchSize;
     }
@@ -293,6 +395,66 @@ public final class MappedStatement {
         return resultSets;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public boolean isUseReplica() {
+        return useReplica;
+    }
+
+    public String getShardOrderBy() {
+        return shardOrderBy;
+    }
+
+    public boolean isAdaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    public boolean isCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public StatementHealth getHealth() {
+        return health;
+    }
+
+    public ParameterBindingPlan getParameterBindingPlan(Object parameterObject) {
+        return parameterBindingPlans.get(parameterTypeKey(parameterObject));
+    }
+
+    /**
+     * 同一条语句交替用几种参数类型调用时各用各的计划，不会互相挤掉；
+     * 类型太多(比如每次都是不同的匿名类)就不再缓存新的
+     */
+    public void putParameterBindingPlan(Object parameterObject, ParameterBindingPlan parameterBindingPlan) {
+        Class<?> key = parameterTypeKey(parameterObject);
+        if (parameterBindingPlans.size() < MAX_PARAMETER_BINDING_PLANS || parameterBindingPlans.containsKey(key)) {
+            parameterBindingPlans.put(key, parameterBindingPlan);
+        }
+    }
+
+    //ConcurrentHashMap不能用null做key，参数为null时用Void.class代替，参数对象不可能是Void
+    private static Class<?> parameterTypeKey(Object parameterObject) {
+        return parameterObject == null ? Void.class : parameterObject.getClass();
+    }
+
+    public int getRowWidth() {
+        return rowWidth;
+    }
+
+    /**
+     * 记录一次流式读取采样到的平均行宽，和之前的值做平滑，动态sql选的列不同时fetchSize不会大起大落
+     */
+    public void recordRowWidth(int rowWidth) {
+        final int previous = this.rowWidth;
+        this.rowWidth = previous == 0 ? rowWidth : (previous * 3 + rowWidth) / 4;
+    }
+
     /**
      * 获取绑定的sql
      * @param parameterObject
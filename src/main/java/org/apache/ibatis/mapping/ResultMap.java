@@ -17,7 +17,9 @@ package org.apache.ibatis.mapping;
 
 import org.apache.ibatis.session.Configuration;
 
+import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 结果映射
@@ -36,6 +38,8 @@ public class ResultMap {
   private boolean hasNestedResultMaps;
   private boolean hasNestedQueries;
   private Boolean autoMapping;
+  //没有配置constructor又没有默认构造函数时，按结果集各列的Java类型找到的构造函数
+  private final Map<List<String>, Constructor<?>> autoMappingConstructors = new ConcurrentHashMap<List<String>, Constructor<?>>();
 
   private ResultMap() {
   }
@@ -156,4 +160,12 @@ public class ResultMap {
     return autoMapping;
   }
 
+  public Constructor<?> getAutoMappingConstructor(List<String> columnClassNames) {
+    return autoMappingConstructors.get(columnClassNames);
+  }
+
+  public void putAutoMappingConstructor(List<String> columnClassNames, Constructor<?> constructor) {
+    autoMappingConstructors.put(new ArrayList<String>(columnClassNames), constructor);
+  }
+
 }
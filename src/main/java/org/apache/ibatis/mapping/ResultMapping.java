@@ -48,6 +48,10 @@ public class ResultMapping {
     private String resultSet;
     private String foreignColumn;
     private boolean lazy;
+    //批量加载嵌套查询时每次IN查询的最大key数量，0表示不批量
+    private int batchSize;
+    //批量加载时子对象中用来和column值匹配的属性
+    private String batchKey;
 
     ResultMapping() {
     }
@@ -136,6 +140,16 @@ public class ResultMapping {
             return this;
         }
 
+        public Builder batchSize(int batchSize) {
+            resultMapping.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder batchKey(String batchKey) {
+            resultMapping.batchKey = batchKey;
+            return this;
+        }
+
         public ResultMapping build() {
             // lock down collections
             resultMapping.flags = Collections.unmodifiableList(resultMapping.flags);
@@ -172,6 +186,18 @@ public class ResultMapping {
                     throw new IllegalStateException("There should be the same number of columns and foreignColumns in property " + resultMapping.property);
                 }
             }
+            //批量加载只支持单列key的嵌套查询，并且需要知道子对象的哪个属性对应key
+            if (resultMapping.batchSize > 0) {
+                if (resultMapping.nestedQueryId == null) {
+                    throw new IllegalStateException("batchSize requires a nested select in property " + resultMapping.property);
+                }
+                if (!resultMapping.composites.isEmpty()) {
+                    throw new IllegalStateException("batchSize cannot be used with composite columns in property " + resultMapping.property);
+                }
+                if (resultMapping.batchKey == null) {
+                    throw new IllegalStateException("batchSize requires a batchKey in property " + resultMapping.property);
+                }
+            }
         }
 
         private void resolveTypeHandler() {
@@ -256,6 +282,14 @@ public class ResultMapping {
         this.lazy = lazy;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public String getBatchKey() {
+        return batchKey;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -18,6 +18,8 @@ package org.apache.ibatis.plugin;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 /**
  * 拦截器链
  *
@@ -26,10 +28,43 @@ public class InterceptorChain {
 
   //内部就是一个拦截器的List
   private final List<Interceptor> interceptors = new ArrayList<Interceptor>();
+  //每个目标类编译好的拦截器管道
+  private final ConcurrentMap<Class<?>, InterceptorPipeline> pipelines = new ConcurrentHashMap<Class<?>, InterceptorPipeline>();
 
   //target是一个statementHandler
   public Object pluginAll(Object target) {
-    //循环调用每个Interceptor.plugin方法
+    if (interceptors.isEmpty()) {
+      return target;
+    }
+    //先让每个Interceptor.plugin跑一遍，只记录下调用了Plugin.wrap的拦截器
+    List<Interceptor> recorded = new ArrayList<Interceptor>(interceptors.size());
+    boolean compilable = true;
+    List<Interceptor> previous = Plugin.startRecording(recorded);
+    try {
+      for (Interceptor interceptor : interceptors) {
+        if (interceptor.plugin(target) != target) {
+          compilable = false;
+          break;
+        }
+      }
+    } finally {
+      Plugin.stopRecording(previous);
+    }
+    //有拦截器自己包装了目标对象，只能按原来的方式一层层包
+    if (!compilable) {
+      return pluginEach(target);
+    }
+    Class<?> type = target.getClass();
+    InterceptorPipeline pipeline = pipelines.get(type);
+    if (pipeline == null || !pipeline.matches(recorded)) {
+      pipeline = new InterceptorPipeline(type, recorded.toArray(new Interceptor[recorded.size()]));
+      pipelines.put(type, pipeline);
+    }
+    return pipeline.wrap(target);
+  }
+
+  //循环调用每个Interceptor.plugin方法
+  private Object pluginEach(Object target) {
     for (Interceptor interceptor : interceptors) {
       target = interceptor.plugin(target);
     }
@@ -38,6 +73,7 @@ public class InterceptorChain {
 
   public void addInterceptor(Interceptor interceptor) {
     interceptors.add(interceptor);
+    pipelines.clear();
   }
   
   public List<Interceptor> getInterceptors() {
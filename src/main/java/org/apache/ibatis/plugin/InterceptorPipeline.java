@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.plugin;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译好的拦截器管道
+ * 每个目标类只算一次：哪些方法被拦截、被哪些拦截器按什么顺序拦截。
+ * 目标对象只包一层代理，没被拦截的方法直接调用目标，被拦截的方法按事先排好的数组依次调用拦截器，
+ * 不用像Plugin那样每个拦截器一层代理、每层都查signatureMap。
+ */
+class InterceptorPipeline {
+
+  //编译时用到的拦截器，按配置顺序
+  private final Interceptor[] interceptors;
+  //方法-->拦截器链，最外层(配置在最后)的拦截器在前面，和一层层Plugin.wrap的调用顺序一样
+  private final Map<Method, Interceptor[]> chains = new HashMap<Method, Interceptor[]>();
+  //代理类的构造器，null表示这个类没有方法需要拦截
+  private final Constructor<?> proxyConstructor;
+
+  InterceptorPipeline(Class<?> type, Interceptor[] interceptors) {
+    this.interceptors = interceptors;
+    Set<Class<?>> interfaces = new HashSet<Class<?>>();
+    Map<Method, List<Interceptor>> methodInterceptors = new HashMap<Method, List<Interceptor>>();
+    for (int i = interceptors.length - 1; i >= 0; i--) {
+      Map<Class<?>, Set<Method>> signatureMap = Plugin.getSignatureMap(interceptors[i]);
+      for (Class<?> c : Plugin.getAllInterfaces(type, signatureMap)) {
+        interfaces.add(c);
+        for (Method method : signatureMap.get(c)) {
+          List<Interceptor> list = methodInterceptors.get(method);
+          if (list == null) {
+            list = new ArrayList<Interceptor>();
+            methodInterceptors.put(method, list);
+          }
+          list.add(interceptors[i]);
+        }
+      }
+    }
+    for (Map.Entry<Method, List<Interceptor>> entry : methodInterceptors.entrySet()) {
+      chains.put(entry.getKey(), entry.getValue().toArray(new Interceptor[entry.getValue().size()]));
+    }
+    if (interfaces.isEmpty()) {
+      proxyConstructor = null;
+    } else {
+      try {
+        proxyConstructor = Proxy.getProxyClass(type.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]))
+            .getConstructor(InvocationHandler.class);
+      } catch (NoSuchMethodException e) {
+        throw new PluginException("Could not create interceptor proxy for " + type + ". Cause: " + e, e);
+      }
+    }
+  }
+
+  //是否为这组拦截器编译的
+  boolean matches(List<Interceptor> interceptors) {
+    if (interceptors.size() != this.interceptors.length) {
+      return false;
+    }
+    for (int i = 0; i < this.interceptors.length; i++) {
+      if (interceptors.get(i) != this.interceptors[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  Object wrap(Object target) {
+    if (proxyConstructor == null) {
+      return target;
+    }
+    try {
+      return proxyConstructor.newInstance(new PipelineHandler(target, chains));
+    } catch (Exception e) {
+      throw new PluginException("Could not create interceptor proxy for " + target.getClass() + ". Cause: " + e, e);
+    }
+  }
+
+  private static class PipelineHandler implements InvocationHandler {
+
+    private final Object target;
+    private final Map<Method, Interceptor[]> chains;
+
+    PipelineHandler(Object target, Map<Method, Interceptor[]> chains) {
+      this.target = target;
+      this.chains = chains;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      try {
+        Interceptor[] chain = chains.get(method);
+        if (chain == null) {
+          return method.invoke(target, args);
+        }
+        return chain[0].intercept(new ChainedInvocation(target, method, args, chain, 0));
+      } catch (Exception e) {
+        throw ExceptionUtil.unwrapThrowable(e);
+      }
+    }
+  }
+
+  /**
+   * proceed时调用链上的下一个拦截器，最后一个才调用目标方法
+   */
+  private static class ChainedInvocation extends Invocation {
+
+    private final Interceptor[] chain;
+    private final int index;
+
+    ChainedInvocation(Object target, Method method, Object[] args, Interceptor[] chain, int index) {
+      super(target, method, args);
+      this.chain = chain;
+      this.index = index;
+    }
+
+    @Override
+    public Object proceed() throws InvocationTargetException, IllegalAccessException {
+      int next = index + 1;
+      if (next == chain.length) {
+        return super.proceed();
+      }
+      try {
+        return chain[next].intercept(new ChainedInvocation(getTarget(), getMethod(), getArgs(), chain, next));
+      } catch (Throwable t) {
+        //和多层Plugin代理一样，里层拦截器的异常包成InvocationTargetException
+        throw new InvocationTargetException(t);
+      }
+    }
+  }
+
+}
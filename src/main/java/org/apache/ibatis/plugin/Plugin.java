@@ -22,6 +22,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,6 +32,9 @@ import java.util.Set;
  */
 public class Plugin implements InvocationHandler {
 
+  //InterceptorChain编译管道时，记录下调用了wrap的拦截器，先不生成代理
+  private static final ThreadLocal<List<Interceptor>> RECORDING = new ThreadLocal<List<Interceptor>>();
+
   private Object target;
   private Interceptor interceptor;
   private Map<Class<?>, Set<Method>> signatureMap;
@@ -49,6 +53,11 @@ public class Plugin implements InvocationHandler {
    * @return
    */
   public static Object wrap(Object target, Interceptor interceptor) {
+    List<Interceptor> recording = RECORDING.get();
+    if (recording != null) {
+      recording.add(interceptor);
+      return target;
+    }
     //获取所要拦截的方法信息
     Map<Class<?>, Set<Method>> signatureMap = getSignatureMap(interceptor);
     //取得要改变行为的类(ParameterHandler|ResultSetHandler|StatementHandler|Executor)
@@ -87,7 +96,22 @@ public class Plugin implements InvocationHandler {
    * @param interceptor
    * @return
    */
-  private static Map<Class<?>, Set<Method>> getSignatureMap(Interceptor interceptor) {
+  //开始记录当前线程里调用Plugin.wrap的拦截器，返回之前的记录以便恢复
+  static List<Interceptor> startRecording(List<Interceptor> recording) {
+    List<Interceptor> previous = RECORDING.get();
+    RECORDING.set(recording);
+    return previous;
+  }
+
+  static void stopRecording(List<Interceptor> previous) {
+    if (previous == null) {
+      RECORDING.remove();
+    } else {
+      RECORDING.set(previous);
+    }
+  }
+
+  static Map<Class<?>, Set<Method>> getSignatureMap(Interceptor interceptor) {
     //取Intercepts注解，例子可参见ExamplePlugin.java
     Intercepts interceptsAnnotation = interceptor.getClass().getAnnotation(Intercepts.class);
     // issue #251
@@ -123,7 +147,7 @@ public class Plugin implements InvocationHandler {
    * @param signatureMap 所要拦截的方法
    * @return
    */
-  private static Class<?>[] getAllInterfaces(Class<?> type, Map<Class<?>, Set<Method>> signatureMap) {
+  static Class<?>[] getAllInterfaces(Class<?> type, Map<Class<?>, Set<Method>> signatureMap) {
     Set<Class<?>> interfaces = new HashSet<Class<?>>();
     //循环获取
     while (type != null) {
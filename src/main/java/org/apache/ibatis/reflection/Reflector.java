@@ -60,6 +60,36 @@ public class Reflector {
         addSetMethods(clazz);
         //加入字段，只添加不存在对应set，get方法的字段，通过字段的反射来设置
         addFields(clazz);
+        initPropertyNames();
+    }
+
+    /**
+     * 用预先生成的元数据创建，直接按名字找到每个属性对应的方法或字段，
+     * 不用遍历整个继承体系，也不用处理重载冲突
+     */
+    private Reflector(Class<?> clazz, ReflectorMetadata metadata) {
+        type = clazz;
+        addDefaultConstructor(clazz);
+        for (Map.Entry<String, String> getter : metadata.getGetters().entrySet()) {
+            Member member = metadata.resolve(clazz, getter.getValue(), canAccessPrivateMethods());
+            if (member instanceof Method) {
+                addGetMethod(getter.getKey(), (Method) member);
+            } else {
+                addGetField((Field) member);
+            }
+        }
+        for (Map.Entry<String, String> setter : metadata.getSetters().entrySet()) {
+            Member member = metadata.resolve(clazz, setter.getValue(), canAccessPrivateMethods());
+            if (member instanceof Method) {
+                addSetMethod(setter.getKey(), (Method) member);
+            } else {
+                addSetField((Field) member);
+            }
+        }
+        initPropertyNames();
+    }
+
+    private void initPropertyNames() {
         readablePropertyNames = getMethods.keySet().toArray(new String[getMethods.keySet().size()]);
         writeablePropertyNames = setMethods.keySet().toArray(new String[setMethods.keySet().size()]);
 
@@ -520,14 +550,27 @@ public class Reflector {
             //对于每个类来说，我们假设它是不会变的，这样可以考虑将这个类的信息(构造函数，getter,setter,字段)加入缓存，以提高速度
             Reflector cached = REFLECTOR_MAP.get(clazz);
             if (cached == null) {
-                cached = new Reflector(clazz);
+                cached = newReflector(clazz);
                 REFLECTOR_MAP.put(clazz, cached);
             }
             return cached;
         } else {
             //如果禁止缓存则每次直接生成一个
-            return new Reflector(clazz);
+            return newReflector(clazz);
+        }
+    }
+
+    //有预先生成的元数据就用元数据，类和生成时对不上(摘要不同，或者方法找不到)就退回到反射扫描
+    private static Reflector newReflector(Class<?> clazz) {
+        ReflectorMetadata metadata = ReflectorMetadata.forClass(clazz);
+        if (metadata != null && metadata.matches(clazz)) {
+            try {
+                return new Reflector(clazz, metadata);
+            } catch (ReflectionException e) {
+                // Ignored. Stale metadata, scan the class instead.
+            }
         }
+        return new Reflector(clazz);
     }
 
     public static void setClassCacheEnabled(boolean classCacheEnabled) {
@@ -0,0 +1,316 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection;
+
+import org.apache.ibatis.reflection.invoker.GetFieldInvoker;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.MethodInvoker;
+import org.apache.ibatis.reflection.invoker.SetFieldInvoker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * 预先生成的反射元数据：每个属性的getter/setter具体是哪个方法或字段
+ * 构建时写到META-INF/mybatis/reflector-metadata.properties，运行时Reflector.forClass找到就直接用，
+ * 省掉遍历继承体系、处理重载冲突的开销
+ * <p>
+ * 格式：类名.get.属性=m:声明类#方法名() 或 f:声明类#字段名；类名.set.属性=m:声明类#方法名(参数类型) 或 f:声明类#字段名；
+ * 类名#fingerprint=生成时整个继承体系class文件的CRC32，运行时算出来不一样(类改过，或者别的jar里带了旧版本)就不用元数据
+ */
+public class ReflectorMetadata {
+
+    public static final String RESOURCE = "META-INF/mybatis/reflector-metadata.properties";
+
+    private static final String FINGERPRINT = "#fingerprint";
+
+    private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class}) {
+            PRIMITIVE_TYPES.put(type.getName(), type);
+        }
+    }
+
+    //类名->元数据，第一次用到时从classpath上所有的元数据文件加载
+    private static volatile Map<String, ReflectorMetadata> index;
+
+    private final Map<String, String> getters = new HashMap<String, String>();
+    private final Map<String, String> setters = new HashMap<String, String>();
+    private String fingerprint;
+
+    private ReflectorMetadata() {
+    }
+
+    public Map<String, String> getGetters() {
+        return getters;
+    }
+
+    public Map<String, String> getSetters() {
+        return setters;
+    }
+
+    /**
+     * 生成时的类和现在加载的类是不是一致，没有记录摘要的元数据也当作不一致
+     */
+    public boolean matches(Class<?> clazz) {
+        return fingerprint != null && fingerprint.equals(fingerprint(clazz));
+    }
+
+    /**
+     * 没有这个类的元数据时返回null
+     */
+    public static ReflectorMetadata forClass(Class<?> clazz) {
+        Map<String, ReflectorMetadata> loaded = index;
+        if (loaded == null) {
+            loaded = loadIndex();
+            index = loaded;
+        }
+        return loaded.get(clazz.getName());
+    }
+
+    private static Map<String, ReflectorMetadata> loadIndex() {
+        final Map<String, ReflectorMetadata> loaded = new HashMap<String, ReflectorMetadata>();
+        final Set<String> urls = new HashSet<String>();
+        for (ClassLoader classLoader : new ClassLoader[]{Thread.currentThread().getContextClassLoader(), ReflectorMetadata.class.getClassLoader()}) {
+            if (classLoader == null) {
+                continue;
+            }
+            try {
+                Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+                while (resources.hasMoreElements()) {
+                    URL url = resources.nextElement();
+                    if (urls.add(url.toString())) {
+                        //同一个类在多个文件里都有时用classpath上靠前的那个，不同版本的条目不能混在一起
+                        for (Map.Entry<String, ReflectorMetadata> entry : load(url).entrySet()) {
+                            if (!loaded.containsKey(entry.getKey())) {
+                                loaded.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Ignored. Reflector falls back to scanning the classes.
+            }
+        }
+        return loaded;
+    }
+
+    private static Map<String, ReflectorMetadata> load(URL url) throws IOException {
+        final Map<String, ReflectorMetadata> loaded = new HashMap<String, ReflectorMetadata>();
+        final Properties properties = new Properties();
+        InputStream in = url.openStream();
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.endsWith(FINGERPRINT)) {
+                metadataOf(key.substring(0, key.length() - FINGERPRINT.length()), loaded).fingerprint = properties.getProperty(key);
+                continue;
+            }
+            //类名.get.属性，属性名里不会有点，从后往前拆
+            int propertyStart = key.lastIndexOf('.');
+            int kindStart = propertyStart > 0 ? key.lastIndexOf('.', propertyStart - 1) : -1;
+            if (kindStart <= 0) {
+                continue;
+            }
+            final String className = key.substring(0, kindStart);
+            final String kind = key.substring(kindStart + 1, propertyStart);
+            final String property = key.substring(propertyStart + 1);
+            if ("get".equals(kind)) {
+                metadataOf(className, loaded).getters.put(property, properties.getProperty(key));
+            } else if ("set".equals(kind)) {
+                metadataOf(className, loaded).setters.put(property, properties.getProperty(key));
+            }
+        }
+        return loaded;
+    }
+
+    private static ReflectorMetadata metadataOf(String className, Map<String, ReflectorMetadata> loaded) {
+        ReflectorMetadata metadata = loaded.get(className);
+        if (metadata == null) {
+            metadata = new ReflectorMetadata();
+            loaded.put(className, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * 类的摘要：它自己和父类、接口的class文件内容的CRC32，JDK里的类不算
+     * 只读class文件的字节，不做反射，比扫描一遍类便宜得多；读不到class文件(比如运行时生成的类)时返回null
+     */
+    public static String fingerprint(Class<?> clazz) {
+        final CRC32 crc = new CRC32();
+        return updateCrc(clazz, crc, new HashSet<Class<?>>()) ? Long.toHexString(crc.getValue()) : null;
+    }
+
+    private static boolean updateCrc(Class<?> clazz, CRC32 crc, Set<Class<?>> visited) {
+        if (clazz == null || clazz.getClassLoader() == null || !visited.add(clazz)) {
+            return true;
+        }
+        final InputStream in = clazz.getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        if (in == null) {
+            return false;
+        }
+        try {
+            try {
+                final byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        for (Class<?> anInterface : clazz.getInterfaces()) {
+            if (!updateCrc(anInterface, crc, visited)) {
+                return false;
+            }
+        }
+        return updateCrc(clazz.getSuperclass(), crc, visited);
+    }
+
+    /**
+     * 按描述找到方法或字段，找不到(类和生成时不一致)抛ReflectionException
+     */
+    public Member resolve(Class<?> clazz, String descriptor, boolean accessPrivate) {
+        try {
+            final int hash = descriptor.indexOf('#');
+            final Class<?> declaringClass = findDeclaringClass(clazz, descriptor.substring(2, hash));
+            if (declaringClass == null) {
+                throw new ReflectionException(descriptor.substring(2, hash) + " is not in the hierarchy of " + clazz);
+            }
+            if (descriptor.startsWith("f:")) {
+                final Field field = declaringClass.getDeclaredField(descriptor.substring(hash + 1));
+                if (accessPrivate) {
+                    field.setAccessible(true);
+                }
+                if (!field.isAccessible()) {
+                    throw new ReflectionException("Field " + field + " is not accessible");
+                }
+                return field;
+            }
+            final int paren = descriptor.indexOf('(', hash);
+            final String name = descriptor.substring(hash + 1, paren);
+            final String parameterType = descriptor.substring(paren + 1, descriptor.length() - 1);
+            final Class<?>[] parameterTypes = parameterType.isEmpty()
+                    ? new Class<?>[0]
+                    : new Class<?>[]{classForName(parameterType, clazz.getClassLoader())};
+            final Method method = declaringClass.getDeclaredMethod(name, parameterTypes);
+            if (accessPrivate) {
+                method.setAccessible(true);
+            }
+            return method;
+        } catch (ReflectionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ReflectionException("Could not resolve '" + descriptor + "' for " + clazz + ".  Cause: " + e, e);
+        }
+    }
+
+    //在类的父类和接口里按名字找声明类
+    private static Class<?> findDeclaringClass(Class<?> clazz, String name) {
+        if (clazz == null) {
+            return null;
+        }
+        if (clazz.getName().equals(name)) {
+            return clazz;
+        }
+        for (Class<?> anInterface : clazz.getInterfaces()) {
+            Class<?> found = findDeclaringClass(anInterface, name);
+            if (found != null) {
+                return found;
+            }
+        }
+        return findDeclaringClass(clazz.getSuperclass(), name);
+    }
+
+    private static Class<?> classForName(String name, ClassLoader classLoader) throws ClassNotFoundException {
+        Class<?> primitive = PRIMITIVE_TYPES.get(name);
+        return primitive != null ? primitive : Class.forName(name, false, classLoader);
+    }
+
+    /**
+     * 生成元数据：用Reflector解析出来的结果写出去，运行时和扫描得到的完全一样
+     * 按key排序输出，同样的输入生成同样的文件
+     */
+    public static void write(Collection<Class<?>> types, Writer writer) throws IOException {
+        final Map<String, String> entries = new TreeMap<String, String>();
+        for (Class<?> type : types) {
+            final Reflector reflector = Reflector.forClass(type);
+            final String fingerprint = fingerprint(type);
+            if (fingerprint != null) {
+                entries.put(type.getName() + FINGERPRINT, fingerprint);
+            }
+            for (String property : reflector.getGetablePropertyNames()) {
+                entries.put(type.getName() + ".get." + property, describe(reflector.getGetInvoker(property)));
+            }
+            for (String property : reflector.getSetablePropertyNames()) {
+                entries.put(type.getName() + ".set." + property, describe(reflector.getSetInvoker(property)));
+            }
+        }
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            writeEscaped(writer, entry.getKey());
+            writer.write('=');
+            writeEscaped(writer, entry.getValue());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    //Properties按ISO-8859-1读，非ASCII的标识符写成Unicode转义
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+
+    private static String describe(Invoker invoker) {
+        if (invoker instanceof MethodInvoker) {
+            final Method method = ((MethodInvoker) invoker).getMethod();
+            final Class<?>[] parameterTypes = method.getParameterTypes();
+            return "m:" + method.getDeclaringClass().getName() + "#" + method.getName()
+                    + "(" + (parameterTypes.length == 0 ? "" : parameterTypes[0].getName()) + ")";
+        } else if (invoker instanceof GetFieldInvoker) {
+            return describe(((GetFieldInvoker) invoker).getField());
+        } else if (invoker instanceof SetFieldInvoker) {
+            return describe(((SetFieldInvoker) invoker).getField());
+        }
+        throw new ReflectionException("Unknown invoker type " + invoker.getClass().getName());
+    }
+
+    private static String describe(Field field) {
+        return "f:" + field.getDeclaringClass().getName() + "#" + field.getName();
+    }
+
+}
@@ -18,8 +18,12 @@ package org.apache.ibatis.reflection.factory;
 import org.apache.ibatis.reflection.ReflectionException;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 默认对象工厂，所有对象都要由工厂来产生
@@ -28,6 +32,11 @@ public class DefaultObjectFactory implements ObjectFactory, Serializable {
 
     private static final long serialVersionUID = -8855120656740914948L;
 
+    private static final Class<?>[] NO_ARG_TYPES = new Class<?>[0];
+    private static final Object[] NO_ARGS = new Object[0];
+    //构造函数的MethodHandle缓存，和Reflector的缓存一样是全局的
+    private static final Map<ConstructorKey, MethodHandle> CONSTRUCTOR_HANDLES = new ConcurrentHashMap<ConstructorKey, MethodHandle>();
+
     @Override
     public <T> T create(Class<T> type) {
         return create(type, null, null);
@@ -48,23 +57,17 @@ public class DefaultObjectFactory implements ObjectFactory, Serializable {
     }
 
     //2.实例化类
+    @SuppressWarnings("unchecked")
     private <T> T instantiateClass(Class<T> type, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
         try {
-            Constructor<T> constructor;
             if (constructorArgTypes == null || constructorArgs == null) {
-                constructor = type.getDeclaredConstructor();
-                //强制使其可被访问
-                if (!constructor.isAccessible()) {
-                    constructor.setAccessible(true);
-                }
-                return constructor.newInstance();
-            }
-            constructor = type.getDeclaredConstructor(constructorArgTypes.toArray(new Class[constructorArgTypes.size()]));
-            if (!constructor.isAccessible()) {
-                constructor.setAccessible(true);
+                return (T) getConstructorHandle(type, NO_ARG_TYPES).invokeExact(NO_ARGS);
             }
-            return constructor.newInstance(constructorArgs.toArray(new Object[constructorArgs.size()]));
-        } catch (Exception e) {
+            final MethodHandle constructor = getConstructorHandle(type, constructorArgTypes.toArray(new Class<?>[constructorArgTypes.size()]));
+            return (T) constructor.invokeExact(constructorArgs.toArray(new Object[constructorArgs.size()]));
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
             //如果出错，包装一下，重新抛出自己的异常
             StringBuilder argTypes = new StringBuilder();
             if (constructorArgTypes != null) {
@@ -84,6 +87,56 @@ public class DefaultObjectFactory implements ObjectFactory, Serializable {
         }
     }
 
+    /**
+     * 找构造函数并转成(Object[])Object形式的MethodHandle，按类型和参数类型缓存，
+     * 之后创建对象不用再getDeclaredConstructor和setAccessible
+     */
+    private static MethodHandle getConstructorHandle(Class<?> type, Class<?>[] argTypes) throws NoSuchMethodException, IllegalAccessException {
+        final ConstructorKey key = new ConstructorKey(type, argTypes);
+        MethodHandle handle = CONSTRUCTOR_HANDLES.get(key);
+        if (handle == null) {
+            Constructor<?> constructor = type.getDeclaredConstructor(argTypes);
+            //强制使其可被访问
+            if (!constructor.isAccessible()) {
+                constructor.setAccessible(true);
+            }
+            handle = MethodHandles.lookup().unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, argTypes.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            CONSTRUCTOR_HANDLES.put(key, handle);
+        }
+        return handle;
+    }
+
+    private static final class ConstructorKey {
+        private final Class<?> type;
+        private final Class<?>[] argTypes;
+        private final int hashCode;
+
+        ConstructorKey(Class<?> type, Class<?>[] argTypes) {
+            this.type = type;
+            this.argTypes = argTypes;
+            this.hashCode = 31 * type.hashCode() + Arrays.hashCode(argTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ConstructorKey)) {
+                return false;
+            }
+            ConstructorKey that = (ConstructorKey) o;
+            return type == that.type && Arrays.equals(argTypes, that.argTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     //1.解析接口,将interface转为默认实现的class
     protected Class<?> resolveInterface(Class<?> type) {
         Class<?> classToCreate;
@@ -40,4 +40,8 @@ public class GetFieldInvoker implements Invoker {
     public Class<?> getType() {
         return field.getType();
     }
+
+    public Field getField() {
+        return field;
+    }
 }
@@ -49,4 +49,9 @@ public class MethodInvoker implements Invoker {
     public Class<?> getType() {
         return type;
     }
+
+    //预先生成反射元数据时要知道具体是哪个方法
+    public Method getMethod() {
+        return method;
+    }
 }
@@ -66,6 +66,16 @@ public class DefaultParameterHandler implements ParameterHandler {
         ErrorContext.instance().activity("setting parameters").object(mappedStatement.getParameterMap().getId());
         //得到Java参数和数据库参数映射关系
         List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        //没有附加参数时(静态SQL)，按编译好的计划绑定
+        if (parameterMappings != null && !parameterMappings.isEmpty() && !boundSql.hasAdditionalParameters()) {
+            ParameterBindingPlan plan = mappedStatement.getParameterBindingPlan(parameterObject);
+            if (plan == null || !plan.matches(parameterMappings, parameterObject)) {
+                plan = ParameterBindingPlan.compile(configuration, parameterMappings, parameterObject);
+                mappedStatement.putParameterBindingPlan(parameterObject, plan);
+            }
+            plan.bind(configuration, ps, parameterObject);
+            return;
+        }
         if (parameterMappings != null) {
             for (int i = 0; i < parameterMappings.size(); i++) {
                 ParameterMapping parameterMapping = parameterMappings.get(i);
@@ -0,0 +1,178 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.defaults;
+
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 参数绑定计划
+ * 同一条静态SQL(同一个ParameterMapping列表)、同一种参数类型，每次绑定参数时取值的方式都是一样的，
+ * 第一次算好每个?怎么取值、用哪个TypeHandler和JdbcType，以后直接按数组绑定，
+ * 不用每次查TypeHandlerRegistry，也不用为参数对象新建MetaObject。
+ */
+public final class ParameterBindingPlan {
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    //取值方式
+    private static final int SKIP = 0;          //OUT参数，不设置
+    private static final int NULL = 1;          //参数对象为null
+    private static final int SELF = 2;          //参数对象本身(有TypeHandler的简单类型)
+    private static final int MAP_KEY = 3;       //Map按key取
+    private static final int GETTER = 4;        //JavaBean的getter
+    private static final int META_OBJECT = 5;   //嵌套属性等复杂情况，还是走MetaObject
+
+    private final List<ParameterMapping> parameterMappings;
+    private final Class<?> parameterType;
+    private final int[] kinds;
+    private final String[] properties;
+    private final Invoker[] getters;
+    private final TypeHandler<?>[] typeHandlers;
+    private final JdbcType[] jdbcTypes;
+    private final JdbcType[] nullJdbcTypes;
+    private final boolean needsMetaObject;
+
+    private ParameterBindingPlan(Configuration configuration, List<ParameterMapping> parameterMappings, Object parameterObject) {
+        int size = parameterMappings.size();
+        this.parameterMappings = parameterMappings;
+        this.parameterType = parameterObject == null ? null : parameterObject.getClass();
+        this.kinds = new int[size];
+        this.properties = new String[size];
+        this.getters = new Invoker[size];
+        this.typeHandlers = new TypeHandler<?>[size];
+        this.jdbcTypes = new JdbcType[size];
+        this.nullJdbcTypes = new JdbcType[size];
+        boolean hasTypeHandler = parameterType != null && configuration.getTypeHandlerRegistry().hasTypeHandler(parameterType);
+        //有自定义ObjectWrapper的参数，取值规则由包装器决定
+        boolean customWrapper = parameterObject instanceof ObjectWrapper
+                || (parameterObject != null && configuration.getObjectWrapperFactory().hasWrapperFor(parameterObject));
+        Reflector reflector = null;
+        boolean meta = false;
+        for (int i = 0; i < size; i++) {
+            ParameterMapping parameterMapping = parameterMappings.get(i);
+            String property = parameterMapping.getProperty();
+            properties[i] = property;
+            typeHandlers[i] = parameterMapping.getTypeHandler();
+            jdbcTypes[i] = parameterMapping.getJdbcType();
+            nullJdbcTypes[i] = jdbcTypes[i] == null ? configuration.getJdbcTypeForNull() : jdbcTypes[i];
+            if (parameterMapping.getMode() == ParameterMode.OUT) {
+                kinds[i] = SKIP;
+            } else if (parameterObject == null) {
+                kinds[i] = NULL;
+            } else if (hasTypeHandler) {
+                kinds[i] = SELF;
+            } else if (customWrapper || !isSimpleProperty(property)) {
+                kinds[i] = META_OBJECT;
+                meta = true;
+            } else if (parameterObject instanceof Map) {
+                kinds[i] = MAP_KEY;
+            } else {
+                if (reflector == null) {
+                    reflector = Reflector.forClass(parameterType);
+                }
+                if (!(parameterObject instanceof Collection) && reflector.hasGetter(property)) {
+                    kinds[i] = GETTER;
+                    getters[i] = reflector.getGetInvoker(property);
+                } else {
+                    //没有getter，交给MetaObject抛出和原来一样的异常
+                    kinds[i] = META_OBJECT;
+                    meta = true;
+                }
+            }
+        }
+        this.needsMetaObject = meta;
+    }
+
+    /**
+     * 按参数映射列表和参数对象编译一个计划
+     */
+    public static ParameterBindingPlan compile(Configuration configuration, List<ParameterMapping> parameterMappings, Object parameterObject) {
+        return new ParameterBindingPlan(configuration, parameterMappings, parameterObject);
+    }
+
+    /**
+     * 计划是不是为这个SQL形状和参数类型编译的
+     */
+    public boolean matches(List<ParameterMapping> parameterMappings, Object parameterObject) {
+        return this.parameterMappings == parameterMappings
+                && this.parameterType == (parameterObject == null ? null : parameterObject.getClass());
+    }
+
+    public void bind(Configuration configuration, PreparedStatement ps, Object parameterObject) throws SQLException {
+        MetaObject metaObject = needsMetaObject ? configuration.newMetaObject(parameterObject) : null;
+        for (int i = 0; i < kinds.length; i++) {
+            Object value;
+            switch (kinds[i]) {
+                case SKIP:
+                    continue;
+                case NULL:
+                    value = null;
+                    break;
+                case SELF:
+                    value = parameterObject;
+                    break;
+                case MAP_KEY:
+                    value = ((Map<?, ?>) parameterObject).get(properties[i]);
+                    break;
+                case GETTER:
+                    value = invokeGetter(i, parameterObject);
+                    break;
+                default:
+                    value = metaObject.getValue(properties[i]);
+                    break;
+            }
+            @SuppressWarnings("unchecked")
+            TypeHandler<Object> typeHandler = (TypeHandler<Object>) typeHandlers[i];
+            typeHandler.setParameter(ps, i + 1, value, value == null ? nullJdbcTypes[i] : jdbcTypes[i]);
+        }
+    }
+
+    private Object invokeGetter(int i, Object parameterObject) {
+        try {
+            try {
+                return getters[i].invoke(parameterObject, NO_ARGUMENTS);
+            } catch (Throwable t) {
+                throw ExceptionUtil.unwrapThrowable(t);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new ReflectionException("Could not get property '" + properties[i] + "' from " + parameterObject.getClass() + ".  Cause: " + t.toString(), t);
+        }
+    }
+
+    //没有.和[]的属性才能直接取
+    private static boolean isSimpleProperty(String property) {
+        return property.indexOf('.') < 0 && property.indexOf('[') < 0;
+    }
+
+}
@@ -28,12 +28,15 @@ import org.apache.ibatis.cache.decorators.WeakCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSourceFactory;
+import org.apache.ibatis.datasource.sharding.ShardingDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.*;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.executor.loader.cglib.CglibProxyFactory;
 import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
+import org.apache.ibatis.executor.pagination.Paginator;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
@@ -63,7 +66,10 @@ import org.apache.ibatis.scripting.defaults.RawLanguageDriver;
 import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ibatis.transaction.jdbc.ReadWriteTransactionFactory;
 import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+import org.apache.ibatis.transaction.sharding.ShardedTransaction;
+import org.apache.ibatis.transaction.sharding.ShardingTransactionFactory;
 import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeAliasRegistry;
 import org.apache.ibatis.type.TypeHandlerRegistry;
@@ -111,6 +117,23 @@ public class Configuration {
     protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
     //默认匹配行为
     protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
+    //流式读取时一次fetch允许占用的内存(字节)，用来计算fetchSize
+    //行宽是之前执行时采样前几行实际数据得到的平均值，LOB列不采样，按上限算
+    protected int streamingMemoryBudget = 4 * 1024 * 1024;
+    //自适应超时取最近耗时p99的多少倍
+    protected int adaptiveTimeoutMultiplier = 4;
+    //熔断器统计最近多少次调用
+    protected int circuitBreakerWindowSize = 20;
+    //失败率(百分比)达到多少时熔断
+    protected int circuitBreakerFailureRateThreshold = 50;
+    //超过多少毫秒算慢调用，慢调用也算失败，0表示不统计慢调用
+    protected int circuitBreakerSlowCallThreshold;
+    //熔断多少毫秒之后放试探的调用过去
+    protected long circuitBreakerOpenDuration = 10000;
+    //RowBounds改写成数据库的物理分页，而不是在内存里跳过前面的行
+    protected boolean physicalPaginationEnabled;
+    //分页方言，数据库名(mysql、oracle...)或者Dialect的类名/别名，不配置时自动识别
+    protected String paginationDialect;
     //---------以上都是<settings>节点-------
 
     //全局的配置文件 所有的配置文件都会集中在这个位置
@@ -140,6 +163,10 @@ public class Configuration {
     protected final TypeAliasRegistry typeAliasRegistry = new TypeAliasRegistry();
     //解析语言处理
     protected final LanguageDriverRegistry languageRegistry = new LanguageDriverRegistry();
+    //合并各个会话同时发出的相同查询
+    protected final QueryCoalescer queryCoalescer = new QueryCoalescer();
+    //物理分页
+    protected final Paginator paginator = new Paginator(this);
 
     //StrictMap就是当出现同样的key时不能默认覆盖掉 而应该采取报错的形式 避免覆盖掉已有的配置
     //映射的sql语句,存在Map里，每个方法对应一条数据
@@ -184,10 +211,14 @@ public class Configuration {
         //对于事务来说 mybatis中就两种 jdbc和MANAGED(让pring容器等的方式来管理事务)
         typeAliasRegistry.registerAlias("JDBC", JdbcTransactionFactory.class);
         typeAliasRegistry.registerAlias("MANAGED", ManagedTransactionFactory.class);
+        typeAliasRegistry.registerAlias("READ_WRITE", ReadWriteTransactionFactory.class);
+        typeAliasRegistry.registerAlias("SHARDING", ShardingTransactionFactory.class);
         //对于数据源来说 就一以下三种JNDI，POOLED，UNPOOLED
         typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
         typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
         typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+        typeAliasRegistry.registerAlias("ROUTING", ReadWriteRoutingDataSourceFactory.class);
+        typeAliasRegistry.registerAlias("SHARDED", ShardingDataSourceFactory.class);
         //缓存的算法
         typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
         typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
@@ -399,6 +430,70 @@ public class Configuration {
         this.defaultStatementTimeout = defaultStatementTimeout;
     }
 
+    public int getStreamingMemoryBudget() {
+        return streamingMemoryBudget;
+    }
+
+    public void setStreamingMemoryBudget(int streamingMemoryBudget) {
+        this.streamingMemoryBudget = streamingMemoryBudget;
+    }
+
+    public int getAdaptiveTimeoutMultiplier() {
+        return adaptiveTimeoutMultiplier;
+    }
+
+    public void setAdaptiveTimeoutMultiplier(int adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+    }
+
+    public int getCircuitBreakerFailureRateThreshold() {
+        return circuitBreakerFailureRateThreshold;
+    }
+
+    public void setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+    }
+
+    public int getCircuitBreakerSlowCallThreshold() {
+        return circuitBreakerSlowCallThreshold;
+    }
+
+    public void setCircuitBreakerSlowCallThreshold(int circuitBreakerSlowCallThreshold) {
+        this.circuitBreakerSlowCallThreshold = circuitBreakerSlowCallThreshold;
+    }
+
+    public long getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    public boolean isPhysicalPaginationEnabled() {
+        return physicalPaginationEnabled;
+    }
+
+    public void setPhysicalPaginationEnabled(boolean physicalPaginationEnabled) {
+        this.physicalPaginationEnabled = physicalPaginationEnabled;
+    }
+
+    public String getPaginationDialect() {
+        return paginationDialect;
+    }
+
+    public void setPaginationDialect(String paginationDialect) {
+        this.paginationDialect = paginationDialect;
+    }
+
     public boolean isUseColumnLabel() {
         return useColumnLabel;
     }
@@ -443,6 +538,14 @@ public class Configuration {
         return typeAliasRegistry;
     }
 
+    public QueryCoalescer getQueryCoalescer() {
+        return queryCoalescer;
+    }
+
+    public Paginator getPaginator() {
+        return paginator;
+    }
+
     /**
      * 获取接口注册器
      *
@@ -541,8 +644,13 @@ public class Configuration {
         executorType = executorType == null ? ExecutorType.SIMPLE : executorType;
         Executor executor;
         //然后就是简单的3个分支，产生3种执行器BatchExecutor/ReuseExecutor/SimpleExecutor
-        if (ExecutorType.BATCH == executorType) {
+        //分库的事务，每个库各自一个执行器
+        if (transaction instanceof ShardedTransaction) {
+            executor = new ShardingExecutor(this, (ShardedTransaction) transaction, executorType);
+        } else if (ExecutorType.BATCH == executorType) {
             executor = new BatchExecutor(this, transaction);
+        } else if (ExecutorType.PIPELINE == executorType) {
+            executor = new PipelineExecutor(this, transaction);
         } else if (ExecutorType.REUSE == executorType) {
             executor = new ReuseExecutor(this, transaction);
         } else {
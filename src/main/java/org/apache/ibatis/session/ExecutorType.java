@@ -25,5 +25,7 @@ public enum ExecutorType {
     //这个执行器类型会复用预处理语句。
     //ExecutorType.BATCH
     //这个执行器会批量执行所有更新语句，如果SELECT在它们中间执行还会标定它们是必须的，来保证一个简单并易于理解的行为。
-    SIMPLE, REUSE, BATCH
+    //ExecutorType.PIPELINE
+    //这个执行器让更新语句按顺序排队，提交或者下一次查询之前才发出去，连续的非预处理语句即使SQL不同也一次发出。
+    SIMPLE, REUSE, BATCH, PIPELINE
 }
@@ -21,6 +21,8 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * 这是MyBatis主要的一个类，用来执行SQL，获取映射器，管理事务
@@ -48,6 +50,24 @@ public interface SqlSession extends Closeable {
 
     <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds);
 
+    /**
+     * 每映射好一行就交给collector累加，不会先生成整个List，
+     * 适合把大量数据汇总(分组、计数、求和等)成少量结果
+     */
+    <T, A, R> R collect(String statement, Object parameter, Collector<? super T, A, R> collector);
+
+    <T, A, R> R collect(String statement, Object parameter, RowBounds rowBounds, Collector<? super T, A, R> collector);
+
+    /**
+     * 结果以Stream的方式逐行读取，结果集一直占用着连接，用完要关闭Stream(try-with-resources)，
+     * 会话关闭时还没关闭的Stream也会被关闭
+     */
+    <T> Stream<T> selectStream(String statement);
+
+    <T> Stream<T> selectStream(String statement, Object parameter);
+
+    <T> Stream<T> selectStream(String statement, Object parameter, RowBounds rowBounds);
+
     void select(String statement, Object parameter, ResultHandler handler);
 
     void select(String statement, ResultHandler handler);
@@ -15,7 +15,10 @@
  */
 package org.apache.ibatis.session;
 
+import org.apache.ibatis.session.reactive.Publisher;
+
 import java.sql.Connection;
+import java.util.concurrent.Executor;
 
 /**
  * 构建SqlSession的工厂.工厂模式
@@ -39,6 +42,10 @@ public interface SqlSessionFactory {
   SqlSession openSession(ExecutorType execType, TransactionIsolationLevel level);
   SqlSession openSession(ExecutorType execType, Connection connection);
 
+  //响应式查询：每个订阅者在ioExecutor上打开自己的会话，按request(n)的需求逐行读取
+  <T> Publisher<T> selectPublisher(String statement, Object parameter, Executor ioExecutor);
+  <T> Publisher<T> selectPublisher(String statement, Object parameter, RowBounds rowBounds, Executor ioExecutor);
+
   Configuration getConfiguration();
 
 }
@@ -17,6 +17,7 @@ package org.apache.ibatis.session;
 
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.session.reactive.Publisher;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -27,6 +28,9 @@ import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * SqlSession管理员
@@ -117,6 +121,17 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
         return sqlSessionFactory.openSession();
     }
 
+    //订阅者用自己的会话，和当前线程的会话无关
+    @Override
+    public <T> Publisher<T> selectPublisher(String statement, Object parameter, Executor ioExecutor) {
+        return sqlSessionFactory.<T>selectPublisher(statement, parameter, ioExecutor);
+    }
+
+    @Override
+    public <T> Publisher<T> selectPublisher(String statement, Object parameter, RowBounds rowBounds, Executor ioExecutor) {
+        return sqlSessionFactory.<T>selectPublisher(statement, parameter, rowBounds, ioExecutor);
+    }
+
     @Override
     public SqlSession openSession(boolean autoCommit) {
         return sqlSessionFactory.openSession(autoCommit);
@@ -182,6 +197,31 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
         return sqlSessionProxy.<K, V>selectMap(statement, parameter, mapKey, rowBounds);
     }
 
+    @Override
+    public <T> Stream<T> selectStream(String statement) {
+        return sqlSessionProxy.<T>selectStream(statement);
+    }
+
+    @Override
+    public <T> Stream<T> selectStream(String statement, Object parameter) {
+        return sqlSessionProxy.<T>selectStream(statement, parameter);
+    }
+
+    @Override
+    public <T> Stream<T> selectStream(String statement, Object parameter, RowBounds rowBounds) {
+        return sqlSessionProxy.<T>selectStream(statement, parameter, rowBounds);
+    }
+
+    @Override
+    public <T, A, R> R collect(String statement, Object parameter, Collector<? super T, A, R> collector) {
+        return sqlSessionProxy.collect(statement, parameter, collector);
+    }
+
+    @Override
+    public <T, A, R> R collect(String statement, Object parameter, RowBounds rowBounds, Collector<? super T, A, R> collector) {
+        return sqlSessionProxy.collect(statement, parameter, rowBounds, collector);
+    }
+
     @Override
     public <E> List<E> selectList(String statement) {
         return sqlSessionProxy.<E>selectList(statement);
@@ -21,6 +21,7 @@ import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.result.CollectorResultHandler;
 import org.apache.ibatis.executor.result.DefaultMapResultHandler;
 import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -35,6 +36,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * 默认SqlSession实现
@@ -134,10 +137,15 @@ public class DefaultSqlSession implements SqlSession {
      */
     @Override
     public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
-        //先得到查寻的数据 在转化为List
-        final List<?> list = selectList(statement, parameter, rowBounds);
         final DefaultMapResultHandler<K, V> mapResultHandler = new DefaultMapResultHandler<K, V>(mapKey,
                 configuration.getObjectFactory(), configuration.getObjectWrapperFactory());
+        //用不到二级缓存时，每行直接放进map，不用先生成List
+        if (configuration.hasStatement(statement) && canHandleRows(configuration.getMappedStatement(statement))) {
+            select(statement, parameter, rowBounds, mapResultHandler);
+            return mapResultHandler.getMappedResults();
+        }
+        //先得到查寻的数据 在转化为List(这样结果才能进二级缓存)
+        final List<?> list = selectList(statement, parameter, rowBounds);
 
         final DefaultResultContext context = new DefaultResultContext();
         for (Object o : list) {
@@ -150,6 +158,47 @@ public class DefaultSqlSession implements SqlSession {
     }
 
 
+    //走ResultHandler要求：不用二级缓存；嵌套结果映射要按resultOrdered处理，否则ResultHandler不允许
+    private boolean canHandleRows(MappedStatement ms) {
+        boolean usesSecondLevelCache = ms.getCache() != null && ms.isUseCache();
+        return !usesSecondLevelCache && (!ms.hasNestedResultMaps() || ms.isResultOrdered());
+    }
+
+    @Override
+    public <T> Stream<T> selectStream(String statement) {
+        return selectStream(statement, null);
+    }
+
+    @Override
+    public <T> Stream<T> selectStream(String statement, Object parameter) {
+        return selectStream(statement, parameter, RowBounds.DEFAULT);
+    }
+
+    @Override
+    public <T> Stream<T> selectStream(String statement, Object parameter, RowBounds rowBounds) {
+        try {
+            MappedStatement ms = configuration.getMappedStatement(statement);
+            //还没读完也没关闭的Stream由执行器记着，会话关闭时一起关闭
+            return executor.<T>queryStream(ms, wrapCollection(parameter), rowBounds);
+        } catch (Exception e) {
+            throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+        } finally {
+            ErrorContext.instance().reset();
+        }
+    }
+
+    @Override
+    public <T, A, R> R collect(String statement, Object parameter, Collector<? super T, A, R> collector) {
+        return collect(statement, parameter, RowBounds.DEFAULT, collector);
+    }
+
+    @Override
+    public <T, A, R> R collect(String statement, Object parameter, RowBounds rowBounds, Collector<? super T, A, R> collector) {
+        CollectorResultHandler<T, A, R> resultHandler = new CollectorResultHandler<T, A, R>(collector);
+        select(statement, parameter, rowBounds, resultHandler);
+        return resultHandler.getResult();
+    }
+
     @Override
     public void select(String statement, Object parameter, ResultHandler handler) {
         select(statement, parameter, RowBounds.DEFAULT, handler);
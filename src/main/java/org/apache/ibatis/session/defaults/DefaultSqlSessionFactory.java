@@ -20,6 +20,8 @@ import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.session.*;
+import org.apache.ibatis.session.reactive.Publisher;
+import org.apache.ibatis.session.reactive.QueryPublisher;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
@@ -84,6 +86,16 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
         return openSessionFromConnection(execType, connection);
     }
 
+    @Override
+    public <T> Publisher<T> selectPublisher(String statement, Object parameter, java.util.concurrent.Executor ioExecutor) {
+        return selectPublisher(statement, parameter, RowBounds.DEFAULT, ioExecutor);
+    }
+
+    @Override
+    public <T> Publisher<T> selectPublisher(String statement, Object parameter, RowBounds rowBounds, java.util.concurrent.Executor ioExecutor) {
+        return new QueryPublisher<T>(this, statement, parameter, rowBounds, ioExecutor);
+    }
+
     @Override
     public Configuration getConfiguration() {
         return configuration;
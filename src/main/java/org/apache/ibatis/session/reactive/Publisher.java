@@ -0,0 +1,29 @@
+/*
+ *    Copyright 2009-2011 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.reactive;
+
+/**
+ * 数据的发布者，和Reactive Streams的Publisher方法一致，
+ * 可以用很薄的适配器转成org.reactivestreams.Publisher或者java.util.concurrent.Flow.Publisher
+ */
+public interface Publisher<T> {
+
+    /**
+     * 订阅，之后会先收到onSubscribe，数据按Subscription.request的需求发出
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+
+}
@@ -0,0 +1,219 @@
+/*
+ *    Copyright 2009-2011 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.reactive;
+
+import org.apache.ibatis.executor.resultset.ResultSetSpliterator;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 查询的发布者，每个订阅者在ioExecutor上打开自己的SqlSession，
+ * 有需求时才执行查询，按request(n)逐行从结果集读取并映射，同一时刻只有一行在内存里。
+ * 读完、出错或者取消时关闭结果集、Statement和会话。
+ * 取消时如果正在读取，用Statement.cancel中断它，不用等这次读取结束。
+ */
+public class QueryPublisher<T> implements Publisher<T> {
+
+    private final SqlSessionFactory sqlSessionFactory;
+    private final String statement;
+    private final Object parameter;
+    private final RowBounds rowBounds;
+    //执行阻塞的JDBC调用的线程池
+    private final Executor ioExecutor;
+
+    public QueryPublisher(SqlSessionFactory sqlSessionFactory, String statement, Object parameter, RowBounds rowBounds, Executor ioExecutor) {
+        if (ioExecutor == null) {
+            throw new IllegalArgumentException("An executor for blocking JDBC calls is required.");
+        }
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.statement = statement;
+        this.parameter = parameter;
+        this.rowBounds = rowBounds;
+        this.ioExecutor = ioExecutor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null.");
+        }
+        QuerySubscription subscription = new QuerySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * 所有JDBC调用和对订阅者的通知都在drain里做，wip保证同一时刻只有一个线程在drain
+     */
+    private class QuerySubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        //正在读取的结果集，cancel时在订阅者的线程里取消它的Statement
+        private volatile ResultSetSpliterator<?> running;
+
+        //以下只在drain线程里访问
+        private boolean done;
+        private SqlSession sqlSession;
+        private Stream<T> stream;
+        private Iterator<T> iterator;
+
+        QuerySubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Request must be positive, but was " + n + ".");
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    if (current == Long.MAX_VALUE) {
+                        break;
+                    }
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            ResultSetSpliterator<?> spliterator = running;
+            if (spliterator != null) {
+                spliterator.cancel();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                ioExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                terminate();
+                return;
+            }
+            if (invalidRequest != null) {
+                terminate();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            long requested = demand.get();
+            if (requested == 0) {
+                return;
+            }
+            try {
+                //第一次有需求才打开会话执行查询
+                if (iterator == null) {
+                    sqlSession = sqlSessionFactory.openSession();
+                    stream = sqlSession.<T>selectStream(statement, parameter, rowBounds);
+                    //没有中间操作的Stream直接给出底层的ResultSetSpliterator(分库合并的不是)
+                    Spliterator<T> spliterator = stream.spliterator();
+                    if (spliterator instanceof ResultSetSpliterator) {
+                        running = (ResultSetSpliterator<?>) spliterator;
+                    }
+                    iterator = Spliterators.iterator(spliterator);
+                }
+                long emitted = 0;
+                while (emitted != requested) {
+                    if (cancelled) {
+                        terminate();
+                        return;
+                    }
+                    if (!iterator.hasNext()) {
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(iterator.next());
+                    emitted++;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+            } catch (RuntimeException e) {
+                terminate();
+                //取消引起的读取失败不用再通知
+                if (!cancelled) {
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        //关闭Stream(结果集和Statement)再关闭会话
+        private void terminate() {
+            done = true;
+            try {
+                if (stream != null) {
+                    stream.close();
+                }
+            } finally {
+                stream = null;
+                iterator = null;
+                running = null;
+                if (sqlSession != null) {
+                    sqlSession.close();
+                    sqlSession = null;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ *    Copyright 2009-2011 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.reactive;
+
+/**
+ * 订阅关系，和Reactive Streams的Subscription方法一致
+ */
+public interface Subscription {
+
+    /**
+     * 还能再接收n个元素
+     */
+    void request(long n);
+
+    /**
+     * 取消，不再接收元素，发布者尽快释放资源
+     */
+    void cancel();
+
+}
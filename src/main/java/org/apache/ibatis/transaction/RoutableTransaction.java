@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction;
+
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * 可以按语句选择连接的事务
+ * 执行器在每条语句取连接之前调用route，之后getConnection返回的就是这条语句该用的连接，
+ * 比如读写分离时select走从库，其他语句走主库
+ */
+public interface RoutableTransaction extends Transaction {
+
+    /**
+     * Selects the connection returned by the next getConnection() calls.
+     *
+     * @param ms the statement about to be executed
+     */
+    void route(MappedStatement ms);
+
+}
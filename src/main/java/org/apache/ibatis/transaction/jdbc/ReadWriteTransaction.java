@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction.jdbc;
+
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.RoutableTransaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 读写分离的Jdbc事务
+ * select(且语句没有配置useReplica="false")走从库，其他语句走主库。
+ * 一旦在主库上写过，或者在非自动提交的事务里用过主库，之后这个会话的所有语句都固定走主库，
+ * 保证能读到自己写的数据，也不会把一个事务拆到两个库上。
+ * 从库连接用自动提交，commit/rollback只作用于主库。
+ */
+public class ReadWriteTransaction extends JdbcTransaction implements RoutableTransaction {
+
+    private static final Log log = LogFactory.getLog(ReadWriteTransaction.class);
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+    //从库的连接
+    protected Connection replicaConnection;
+    //当前语句是不是走从库
+    private boolean readFromReplica;
+    //是否已经固定走主库
+    private boolean pinnedToPrimary;
+
+    public ReadWriteTransaction(ReadWriteRoutingDataSource dataSource, TransactionIsolationLevel desiredLevel, boolean desiredAutoCommit) {
+        super(dataSource, desiredLevel, desiredAutoCommit);
+        this.routingDataSource = dataSource;
+    }
+
+    @Override
+    public void route(MappedStatement ms) {
+        boolean read = ms.getSqlCommandType() == SqlCommandType.SELECT;
+        readFromReplica = read && ms.isUseReplica() && !pinnedToPrimary && routingDataSource.getReplicaCount() > 0;
+        if (!readFromReplica && (!read || !autoCommmit)) {
+            pinnedToPrimary = true;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (readFromReplica) {
+            if (replicaConnection == null) {
+                openReplicaConnection();
+            }
+            return replicaConnection;
+        }
+        return super.getConnection();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (replicaConnection != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Closing replica JDBC Connection [" + replicaConnection + "]");
+                }
+                replicaConnection.close();
+                replicaConnection = null;
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    protected void openReplicaConnection() throws SQLException {
+        if (log.isDebugEnabled()) {
+            log.debug("Opening replica JDBC Connection");
+        }
+        replicaConnection = routingDataSource.getReplicaConnection();
+        if (level != null) {
+            replicaConnection.setTransactionIsolation(level.getLevel());
+        }
+        //从库只读，不需要事务
+        if (!replicaConnection.getAutoCommit()) {
+            replicaConnection.setAutoCommit(true);
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction.jdbc;
+
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSource;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.Transaction;
+
+import javax.sql.DataSource;
+
+/**
+ * 读写分离事务工厂
+ * 数据源是ReadWriteRoutingDataSource时创建ReadWriteTransaction，否则和JdbcTransactionFactory一样
+ */
+public class ReadWriteTransactionFactory extends JdbcTransactionFactory {
+
+    @Override
+    public Transaction newTransaction(DataSource ds, TransactionIsolationLevel level, boolean autoCommit) {
+        if (ds instanceof ReadWriteRoutingDataSource) {
+            return new ReadWriteTransaction((ReadWriteRoutingDataSource) ds, level, autoCommit);
+        }
+        return super.newTransaction(ds, level, autoCommit);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction.sharding;
+
+import org.apache.ibatis.datasource.sharding.ShardingDataSource;
+import org.apache.ibatis.transaction.Transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 分库的事务，每个库一个独立的事务，不是分布式事务
+ * ShardingExecutor为每个库建一个执行器，各自提交回滚；这里的commit/rollback/close作用于所有的库。
+ */
+public class ShardedTransaction implements Transaction {
+
+    private final ShardingDataSource dataSource;
+    private final List<Transaction> shardTransactions;
+
+    public ShardedTransaction(ShardingDataSource dataSource, List<Transaction> shardTransactions) {
+        this.dataSource = dataSource;
+        this.shardTransactions = shardTransactions;
+    }
+
+    public ShardingDataSource getDataSource() {
+        return dataSource;
+    }
+
+    public Transaction getShardTransaction(int shard) {
+        return shardTransactions.get(shard);
+    }
+
+    public int getShardCount() {
+        return shardTransactions.size();
+    }
+
+    /**
+     * 没有库的信息，返回第一个库的连接
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return shardTransactions.get(0).getConnection();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        for (Transaction transaction : shardTransactions) {
+            transaction.commit();
+        }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        for (Transaction transaction : shardTransactions) {
+            transaction.rollback();
+        }
+    }
+
+    //一个库关闭失败也要继续关其他的库，最后再抛第一个异常
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (Transaction transaction : shardTransactions) {
+            try {
+                transaction.close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
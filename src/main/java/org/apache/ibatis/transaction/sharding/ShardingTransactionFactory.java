@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction.sharding;
+
+import org.apache.ibatis.datasource.sharding.ShardingDataSource;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 分库事务工厂
+ * 数据源是ShardingDataSource时，为每个库建一个Jdbc事务，包成ShardedTransaction
+ */
+public class ShardingTransactionFactory implements TransactionFactory {
+
+    private final TransactionFactory shardTransactionFactory = new JdbcTransactionFactory();
+
+    @Override
+    public void setProperties(Properties props) {
+        shardTransactionFactory.setProperties(props);
+    }
+
+    @Override
+    public Transaction newTransaction(Connection conn) {
+        return shardTransactionFactory.newTransaction(conn);
+    }
+
+    @Override
+    public Transaction newTransaction(DataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
+        if (!(dataSource instanceof ShardingDataSource)) {
+            return shardTransactionFactory.newTransaction(dataSource, level, autoCommit);
+        }
+        ShardingDataSource shardingDataSource = (ShardingDataSource) dataSource;
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        for (DataSource shard : shardingDataSource.getShards()) {
+            transactions.add(shardTransactionFactory.newTransaction(shard, level, autoCommit));
+        }
+        return new ShardedTransaction(shardingDataSource, transactions);
+    }
+
+}